@@ -0,0 +1,100 @@
+package dev.mrtecno.juno.benchmarks;
+
+import dev.mrtecno.juno.plugin.PluginManifest;
+import dev.mrtecno.juno.plugin.graph.GraphSnapshot;
+import dev.mrtecno.juno.plugin.graph.PluginGraph;
+import dev.mrtecno.juno.plugin.graph.PluginGraph.PluginNode;
+import dev.mrtecno.juno.plugin.identifier.PluginIdentifier;
+import dev.mrtecno.juno.plugin.identifier.PluginWildcard;
+import dev.mrtecno.juno.plugin.identifier.Version;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GraphBenchmark {
+	private static final Version FIRST = Version.parseVersion("1.0.0");
+	private static final Version SECOND = Version.parseVersion("1.1.0");
+
+	@Param({"chain", "fanout", "diamond"})
+	private String shape;
+
+	@Param({"100", "1000"})
+	private int size;
+
+	private PluginGraph graph;
+	private PluginNode bottom;
+	private boolean flipped;
+
+	@Setup
+	public void setup() {
+		graph = new PluginGraph();
+
+		// Switching the bottom plugin between its versions invalidates everything above it
+		graph.add(manifest("P0", FIRST));
+		graph.add(manifest("P0", SECOND));
+		for(int i = 1; i < size; i++)
+			graph.add(manifest("P" + i, FIRST, dependencies(i)));
+
+		bottom = graph.pluginNames().get("P0");
+	}
+
+	private String[] dependencies(int i) {
+		return switch(shape) {
+			case "chain" -> new String[] { "P" + (i - 1) };
+			// A single library everything else depends on
+			case "fanout" -> new String[] { "P0" };
+			// Every plugin depends on the two before it, any four in a row make a diamond
+			case "diamond" -> i == 1 ? new String[] { "P0" } : new String[] { "P" + (i - 1), "P" + (i - 2) };
+			default -> throw new IllegalArgumentException("Unknown graph shape: " + shape);
+		};
+	}
+
+	@Benchmark
+	public List<Set<PluginNode>> layers() {
+		return graph.layers();
+	}
+
+	@Benchmark
+	public List<Set<PluginNode>> layersAfterChange() {
+		bottom.select((flipped = !flipped) ? FIRST : SECOND);
+		return graph.layers();
+	}
+
+	@Benchmark
+	public void traverse(Blackhole bh) {
+		graph.traverse().forEach(bh::consume);
+	}
+
+	@Benchmark
+	public void snapshotTraverse(Blackhole bh) {
+		GraphSnapshot<PluginManifest, PluginNode> snapshot = graph.snapshot();
+		for(int id = 0; id < snapshot.size(); id++)
+			snapshot.forEachDependent(id, false, bh::consume);
+	}
+
+	@Benchmark
+	public void reselectAll() {
+		graph.reselectAll();
+	}
+
+	@Benchmark
+	public Map<String, Version> resolveAll() {
+		return graph.resolveAll();
+	}
+
+	static PluginManifest manifest(String name, Version version, String... dependencies) {
+		return new PluginManifest(null, "bench", new PluginIdentifier(name, version),
+				Arrays.stream(dependencies).map(PluginWildcard::parseWildcard).toArray(PluginWildcard[]::new));
+	}
+}
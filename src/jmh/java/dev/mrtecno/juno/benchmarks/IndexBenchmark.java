@@ -0,0 +1,75 @@
+package dev.mrtecno.juno.benchmarks;
+
+import dev.mrtecno.juno.util.Index;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexBenchmark {
+	private static final int QUERIES = 1024;
+
+	@Param({"100", "10000"})
+	private int size;
+
+	private Entry[] entries;
+	private Index<Entry> index;
+
+	private final String[] names = new String[QUERIES];
+	private final Long[] ids = new Long[QUERIES];
+	private int cursor;
+
+	@Setup
+	public void setup() {
+		entries = new Entry[size];
+		for(int i = 0; i < size; i++)
+			entries[i] = new Entry("P" + i, (long) i);
+
+		index = fill();
+
+		Random random = new Random(42);
+		for(int q = 0; q < QUERIES; q++) {
+			Entry entry = entries[random.nextInt(size)];
+			names[q] = entry.name();
+			ids[q] = entry.id();
+		}
+	}
+
+	// Keyed twice, like plugins are by name and by class
+	private Index<Entry> fill() {
+		Index<Entry> index = new Index<>(Entry::name, Entry::id);
+		for(Entry entry : entries) index.put(entry);
+		return index;
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Index<Entry> put() {
+		return fill();
+	}
+
+	@Benchmark
+	public Entry getByName() {
+		return index.get(names[cursor++ & (QUERIES - 1)]);
+	}
+
+	@Benchmark
+	public Entry getById() {
+		return index.get(ids[cursor++ & (QUERIES - 1)]);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Collection<Entry> values() {
+		return index.values();
+	}
+
+	public record Entry(String name, Long id) {}
+}
@@ -0,0 +1,118 @@
+package dev.mrtecno.juno.benchmarks;
+
+import dev.mrtecno.juno.plugin.Plugin;
+import dev.mrtecno.juno.plugin.PluginLoader;
+import dev.mrtecno.juno.plugin.PluginManager;
+import dev.mrtecno.juno.plugin.PluginManifest;
+import dev.mrtecno.juno.plugin.identifier.PluginIdentifier;
+import dev.mrtecno.juno.plugin.identifier.PluginWildcard;
+import dev.mrtecno.juno.plugin.identifier.Version;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LookupBenchmark {
+	// Power of two, so the cursor can wrap with a mask
+	private static final int QUERIES = 1024;
+
+	@Param({"100", "10000"})
+	private int plugins;
+
+	@Param({"5"})
+	private int versions;
+
+	private PluginManager manager;
+
+	private final String[] names = new String[QUERIES];
+	private final PluginIdentifier[] identifiers = new PluginIdentifier[QUERIES];
+	private final PluginWildcard[] ranges = new PluginWildcard[QUERIES];
+	private int cursor;
+
+	@Setup
+	public void setup() {
+		CatalogLoader loader = new CatalogLoader();
+		manager = new PluginManager(loader);
+
+		for(int i = 0; i < plugins; i++)
+			for(int v = 0; v < versions; v++)
+				loader.manifests().add(new PluginManifest(loader, "bench",
+						new PluginIdentifier("P" + i, new Version(1, v, 0)), new PluginWildcard[0]));
+
+		loader.manifests().forEach(manager::discover);
+
+		Random random = new Random(42);
+		for(int q = 0; q < QUERIES; q++) {
+			String name = "P" + random.nextInt(plugins);
+			names[q] = name;
+			identifiers[q] = new PluginIdentifier(name, new Version(1, random.nextInt(versions), 0));
+			ranges[q] = PluginWildcard.parseWildcard(name + ":^1." + random.nextInt(versions));
+		}
+	}
+
+	private int next() {
+		return cursor++ & (QUERIES - 1);
+	}
+
+	@Benchmark
+	public Optional<PluginManifest> lookupIdentifier() {
+		return manager.lookup(identifiers[next()]);
+	}
+
+	@Benchmark
+	public Optional<PluginManifest> lookupRange() {
+		return manager.lookup(ranges[next()]);
+	}
+
+	@Benchmark
+	public boolean isKnownName() {
+		return manager.isKnown(names[next()]);
+	}
+
+	@Benchmark
+	public boolean isKnownIdentifier() {
+		return manager.isKnown(identifiers[next()]);
+	}
+
+	// Only serves what's put in it, nothing is ever loaded
+	private static class CatalogLoader implements PluginLoader {
+		private final List<PluginManifest> manifests = new ArrayList<>();
+
+		List<PluginManifest> manifests() {
+			return manifests;
+		}
+
+		@Override
+		public void initialize(ClassLoader parent) {}
+
+		@Override
+		public Collection<PluginManifest> availablePlugins() {
+			return manifests;
+		}
+
+		@Override
+		public Optional<PluginManifest> lookup(PluginWildcard name) {
+			return manifests.stream().filter(name).findFirst();
+		}
+
+		@Override
+		public Plugin load(PluginManifest manifest) {
+			throw new UnsupportedOperationException("Benchmark manifests can't be loaded");
+		}
+
+		@Override
+		public void unload(Plugin pl) {
+			throw new UnsupportedOperationException("Benchmark manifests can't be loaded");
+		}
+	}
+}
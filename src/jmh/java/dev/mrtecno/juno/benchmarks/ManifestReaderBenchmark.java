@@ -0,0 +1,107 @@
+package dev.mrtecno.juno.benchmarks;
+
+import dev.mrtecno.juno.loaders.FileLoader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ManifestReaderBenchmark {
+	private static final byte[] MANIFEST = """
+			{"name": "Bench", "version": "1.0.0", "entrypoint": "bench.Main", "dependencies": []}
+			""".getBytes(StandardCharsets.UTF_8);
+
+	@Param({"100", "10000"})
+	private int entries;
+
+	@Param({"true", "false"})
+	private boolean deflated;
+
+	@Param({"16"})
+	private int jars;
+
+	private Path directory;
+	private FileLoader loader;
+	private final List<File> corpus = new ArrayList<>();
+
+	@Setup
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory("juno-jmh");
+		loader = new FileLoader(directory.toFile());
+
+		for(int i = 0; i < jars; i++)
+			corpus.add(writeJar(directory.resolve("plugin-" + i + ".jar")));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		try(Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	@Benchmark
+	public void jarFile(Blackhole bh) {
+		for(File jar : corpus) bh.consume(loader.readJarManifest(jar));
+	}
+
+	@Benchmark
+	public void centralDirectory(Blackhole bh) throws IOException {
+		for(File jar : corpus) bh.consume(loader.readMappedManifest(jar));
+	}
+
+	@Benchmark
+	public void checkJar(Blackhole bh) {
+		for(File jar : corpus) bh.consume(loader.checkJar(jar));
+	}
+
+	private File writeJar(Path path) throws IOException {
+		byte[] filler = new byte[512];
+
+		try(JarOutputStream out = new JarOutputStream(Files.newOutputStream(path))) {
+			for(int i = 0; i < entries; i++) {
+				out.putNextEntry(new JarEntry("bench/pkg" + (i % 64) + "/Class" + i + ".class"));
+				out.write(filler);
+				out.closeEntry();
+			}
+
+			// Last in the central directory, the worst case for a linear scan
+			JarEntry manifest = new JarEntry("manifest.json");
+			if(!deflated) stored(manifest, MANIFEST);
+			out.putNextEntry(manifest);
+			out.write(MANIFEST);
+			out.closeEntry();
+		}
+
+		return path.toFile();
+	}
+
+	private static void stored(ZipEntry entry, byte[] content) {
+		CRC32 crc = new CRC32();
+		crc.update(content);
+
+		entry.setMethod(ZipEntry.STORED);
+		entry.setSize(content.length);
+		entry.setCompressedSize(content.length);
+		entry.setCrc(crc.getValue());
+	}
+}
@@ -0,0 +1,56 @@
+package dev.mrtecno.juno.benchmarks;
+
+import dev.mrtecno.juno.plugin.graph.PluginGraph;
+import dev.mrtecno.juno.plugin.graph.VersionResolver;
+import dev.mrtecno.juno.plugin.identifier.Version;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResolverBenchmark {
+	@Param({"100", "1000"})
+	private int plugins;
+
+	@Param({"10", "30"})
+	private int versions;
+
+	private PluginGraph graph;
+
+	@Setup
+	public void setup() {
+		graph = new PluginGraph();
+		Random random = new Random(42);
+
+		for(int i = 0; i < plugins; i++) {
+			List<Integer> dependencies = new ArrayList<>();
+			for(int d = 0; d < Math.min(i, 3); d++) {
+				int dependency = random.nextInt(i);
+				if(!dependencies.contains(dependency)) dependencies.add(dependency);
+			}
+
+			// Five minor versions per major, each asking for about its own major of every dependency.
+			// Lower bounds only, the greedy selection that runs on every add can't place everything otherwise
+			for(int v = 0; v < versions; v++) {
+				String[] wildcards = new String[dependencies.size()];
+				for(int d = 0; d < wildcards.length; d++)
+					wildcards[d] = "P" + dependencies.get(d) + ":>=" + Math.max(0, v / 5 - random.nextInt(2)) + ".0.0";
+
+				graph.add(GraphBenchmark.manifest("P" + i, new Version(v / 5, v % 5, 0), wildcards));
+			}
+		}
+	}
+
+	@Benchmark
+	public VersionResolver.Resolution resolve() {
+		return new VersionResolver(graph).resolve();
+	}
+}
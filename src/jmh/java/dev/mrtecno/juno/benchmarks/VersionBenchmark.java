@@ -0,0 +1,41 @@
+package dev.mrtecno.juno.benchmarks;
+
+import dev.mrtecno.juno.plugin.identifier.PluginWildcard;
+import dev.mrtecno.juno.plugin.identifier.Version;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VersionBenchmark {
+	private static final int QUERIES = 1024;
+
+	private final String[] versions = new String[QUERIES];
+	private final String[] wildcards = new String[QUERIES];
+	private int cursor;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		for(int q = 0; q < QUERIES; q++) {
+			versions[q] = random.nextInt(10) + "." + random.nextInt(100) + "." + random.nextInt(1000);
+			wildcards[q] = "P" + q + ":^" + versions[q];
+		}
+	}
+
+	@Benchmark
+	public Version parseVersion() {
+		return Version.parseVersion(versions[cursor++ & (QUERIES - 1)]);
+	}
+
+	@Benchmark
+	public PluginWildcard parseWildcard() {
+		return PluginWildcard.parseWildcard(wildcards[cursor++ & (QUERIES - 1)]);
+	}
+}
@@ -2,6 +2,7 @@ package dev.mrtecno.juno;
 
 import dev.mrtecno.juno.loaders.FileLoader;
 import dev.mrtecno.juno.loaders.IntegratedLoader;
+import dev.mrtecno.juno.plugin.Lockfile;
 import dev.mrtecno.juno.plugin.PluginManager;
 import dev.mrtecno.juno.service.Service;
 import dev.mrtecno.juno.service.ServiceManager;
@@ -25,6 +26,8 @@ public class Juno implements Service {
 		pluginManager().registerLoader(
 				IntegratedLoader.fromListFile("/plugins"));
 		pluginManager().registerLoader(new FileLoader(new File("plugins")));
+		pluginManager().lockfile(new Lockfile(new File("plugins", Lockfile.FILE_NAME)));
+		serviceManager().provider(pluginManager()::service);
 		pluginManager().initialize();
 
 		pluginManager().startup();
@@ -38,9 +41,8 @@ public class Juno implements Service {
 			() -> new IllegalStateException("Juno was not registered"));
 	}
 
-	@SuppressWarnings("unchecked")
 	public static <T extends Service> T service(Class<T> clazz) {
-		return (T) instance().serviceManager().require(clazz);
+		return instance().serviceManager().require(clazz);
 	}
 
 	public static void main(String[] args) {
@@ -0,0 +1,24 @@
+package dev.mrtecno.juno.events;
+
+import dev.mrtecno.juno.plugin.identifier.PluginIdentifier;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("dev.mrtecno.juno.ClassLoaderCollection")
+@Label("Plugin Class Loader Collection")
+public class ClassLoaderCollectionEvent extends PluginEvent {
+	@Label("GC Cycles")
+	long cycles;
+
+	@Label("Reported Leaking")
+	boolean leaked;
+
+	public void commit(PluginIdentifier id, long cycles, boolean leaked) {
+		if(!shouldCommit()) return;
+
+		plugin(id);
+		this.cycles = cycles;
+		this.leaked = leaked;
+		commit();
+	}
+}
@@ -0,0 +1,22 @@
+package dev.mrtecno.juno.events;
+
+import dev.mrtecno.juno.plugin.PluginManifest;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.io.File;
+
+@Name("dev.mrtecno.juno.ClassLoaderCreation")
+@Label("Plugin Class Loader Creation")
+public class ClassLoaderEvent extends PluginEvent {
+	@Label("File")
+	String file;
+
+	public void commit(PluginManifest manifest, File file) {
+		if(!shouldCommit()) return;
+
+		plugin(manifest.id());
+		this.file = file != null ? file.getPath() : null;
+		commit();
+	}
+}
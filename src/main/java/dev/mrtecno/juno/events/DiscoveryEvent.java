@@ -0,0 +1,20 @@
+package dev.mrtecno.juno.events;
+
+import dev.mrtecno.juno.plugin.PluginManifest;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("dev.mrtecno.juno.Discovery")
+@Label("Plugin Discovery")
+public class DiscoveryEvent extends PluginEvent {
+	@Label("Loader")
+	String loader;
+
+	public void commit(PluginManifest manifest) {
+		if(!shouldCommit()) return;
+
+		plugin(manifest.id());
+		if(manifest.loader() != null) loader = manifest.loader().getClass().getName();
+		commit();
+	}
+}
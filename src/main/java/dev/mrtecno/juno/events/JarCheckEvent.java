@@ -0,0 +1,27 @@
+package dev.mrtecno.juno.events;
+
+import dev.mrtecno.juno.plugin.PluginManifest;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.io.File;
+import java.util.Optional;
+
+@Name("dev.mrtecno.juno.JarCheck")
+@Label("Plugin Jar Check")
+public class JarCheckEvent extends PluginEvent {
+	@Label("File")
+	String file;
+
+	@Label("Cached")
+	boolean cached;
+
+	public void commit(File file, Optional<PluginManifest> manifest, boolean cached) {
+		if(!shouldCommit()) return;
+
+		this.file = file.getPath();
+		this.cached = cached;
+		manifest.ifPresent(m -> plugin(m.id()));
+		commit();
+	}
+}
@@ -0,0 +1,27 @@
+package dev.mrtecno.juno.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Covers the whole graph at once, so it has no plugin of its own
+@Name("dev.mrtecno.juno.Layering")
+@Label("Dependency Graph Layering")
+@Category("Juno")
+@StackTrace(false)
+public class LayeringEvent extends jdk.jfr.Event {
+	@Label("Nodes")
+	int nodes;
+
+	@Label("Layers")
+	int layers;
+
+	public void commit(int nodes, int layers) {
+		if(!shouldCommit()) return;
+
+		this.nodes = nodes;
+		this.layers = layers;
+		commit();
+	}
+}
@@ -0,0 +1,43 @@
+package dev.mrtecno.juno.events;
+
+import dev.mrtecno.juno.plugin.identifier.PluginIdentifier;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.util.function.Supplier;
+
+@Name("dev.mrtecno.juno.Lifecycle")
+@Label("Plugin Lifecycle")
+public class LifecycleEvent extends PluginEvent {
+	@Label("Phase")
+	String phase;
+
+	@Label("Failed")
+	boolean failed;
+
+	public static void record(String phase, PluginIdentifier id, Runnable action) {
+		record(phase, id, () -> {
+			action.run();
+			return null;
+		});
+	}
+
+	public static <R> R record(String phase, PluginIdentifier id, Supplier<R> action) {
+		LifecycleEvent event = new LifecycleEvent();
+		event.begin();
+
+		boolean failed = true;
+		try {
+			R result = action.get();
+			failed = false;
+			return result;
+		} finally {
+			if(event.shouldCommit()) {
+				event.plugin(id);
+				event.phase = phase;
+				event.failed = failed;
+				event.commit();
+			}
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package dev.mrtecno.juno.events;
+
+import dev.mrtecno.juno.plugin.identifier.PluginIdentifier;
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+// Common fields of every event about a single plugin, the duration comes with the event itself.
+// Fields are only filled once shouldCommit() says someone is recording
+@Category("Juno")
+@StackTrace(false)
+public abstract class PluginEvent extends jdk.jfr.Event {
+	@Label("Plugin")
+	String plugin;
+
+	@Label("Version")
+	String version;
+
+	void plugin(PluginIdentifier id) {
+		plugin = id.name();
+		version = id.version().toString();
+	}
+}
@@ -0,0 +1,30 @@
+package dev.mrtecno.juno.events;
+
+import dev.mrtecno.juno.plugin.identifier.Version;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// Version is the one selected, empty if nothing fit
+@Name("dev.mrtecno.juno.Resolution")
+@Label("Plugin Version Selection")
+public class ResolutionEvent extends PluginEvent {
+	@Label("Known Versions")
+	int candidates;
+
+	@Label("Versions In Range")
+	int allowed;
+
+	@Label("Dependents")
+	int dependents;
+
+	public void commit(String name, Version selected, int candidates, int allowed, int dependents) {
+		if(!shouldCommit()) return;
+
+		plugin = name;
+		version = selected != null ? selected.toString() : null;
+		this.candidates = candidates;
+		this.allowed = allowed;
+		this.dependents = dependents;
+		commit();
+	}
+}
@@ -0,0 +1,200 @@
+package dev.mrtecno.juno.loaders;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+// Reads single entries straight out of a mapped zip file, without building an index of the whole archive
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class CentralDirectoryReader {
+	private static final int EOCD_SIGNATURE = 0x06054b50;
+	private static final int CEN_SIGNATURE = 0x02014b50;
+	private static final int LOC_SIGNATURE = 0x04034b50;
+
+	private static final int EOCD_SIZE = 22;
+	private static final int CEN_SIZE = 46;
+	private static final int LOC_SIZE = 30;
+	private static final int MAX_COMMENT = 0xFFFF;
+
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+
+	private static final int MAX_ENTRY_SIZE = 16 * 1024 * 1024;
+
+	// Entries always end up on the heap, nothing handed out reads the mapping after the file is closed
+	public static Optional<ByteBuffer> readEntry(Path path, String name) throws IOException {
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer map = map(channel, path);
+			byte[] target = name.getBytes(StandardCharsets.UTF_8);
+
+			int[] bounds = centralDirectory(map, path);
+			for(int pos = bounds[0]; pos >= 0; pos = next(map, pos, bounds[1], path))
+				if((map.getShort(pos + 28) & 0xFFFF) == target.length && matches(map, pos + CEN_SIZE, target))
+					return Optional.of(extract(map, pos, path));
+
+			return Optional.empty();
+		} catch(InternalError e) {
+			throw truncated(path, e);
+		}
+	}
+
+	// Names of every entry, straight from the central directory without touching their data
+	public static List<String> entryNames(Path path) throws IOException {
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer map = map(channel, path);
+			List<String> names = new ArrayList<>();
+
+			int[] bounds = centralDirectory(map, path);
+			for(int pos = bounds[0]; pos >= 0; pos = next(map, pos, bounds[1], path)) {
+				byte[] name = new byte[map.getShort(pos + 28) & 0xFFFF];
+				map.get(pos + CEN_SIZE, name);
+				names.add(new String(name, StandardCharsets.UTF_8));
+			}
+
+			return names;
+		} catch(InternalError e) {
+			throw truncated(path, e);
+		}
+	}
+
+	// Reading a mapping past the end of a file cut short while mapped faults,
+	// it's reported like any other broken zip so callers can fall back to JarFile
+	private static ZipException truncated(Path path, InternalError cause) {
+		ZipException e = new ZipException("Zip file changed while it was read: " + path);
+		e.initCause(cause);
+		return e;
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, Path path) throws IOException {
+		long size = channel.size();
+		if(size < EOCD_SIZE) throw new ZipException("Not a zip file: " + path);
+		if(size > Integer.MAX_VALUE) throw new ZipException("Zip file too large to map: " + path);
+
+		MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		map.order(ByteOrder.LITTLE_ENDIAN);
+		return map;
+	}
+
+	// First header and end of the central directory, the first is -1 when there are no entries
+	private static int[] centralDirectory(ByteBuffer map, Path path) throws ZipException {
+		int eocd = findEndOfCentralDirectory(map);
+		int entries = map.getShort(eocd + 10) & 0xFFFF;
+		long cenSize = map.getInt(eocd + 12) & 0xFFFFFFFFL;
+		long cenOffset = map.getInt(eocd + 16) & 0xFFFFFFFFL;
+
+		if(entries == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL)
+			throw new ZipException("Zip64 archives are not supported: " + path);
+		if(cenOffset + cenSize > eocd)
+			throw new ZipException("Invalid central directory bounds: " + path);
+
+		int start = (int) cenOffset, end = (int) (cenOffset + cenSize);
+		return new int[] { check(map, start, end, path), end };
+	}
+
+	private static int next(ByteBuffer map, int pos, int end, Path path) throws ZipException {
+		int nameLength = map.getShort(pos + 28) & 0xFFFF;
+		int extraLength = map.getShort(pos + 30) & 0xFFFF;
+		int commentLength = map.getShort(pos + 32) & 0xFFFF;
+
+		return check(map, pos + CEN_SIZE + nameLength + extraLength + commentLength, end, path);
+	}
+
+	// Past this point the whole header, name included, is known to sit inside the directory
+	private static int check(ByteBuffer map, int pos, int end, Path path) throws ZipException {
+		if(pos + CEN_SIZE > end) return -1;
+		if(map.getInt(pos) != CEN_SIGNATURE)
+			throw new ZipException("Invalid central directory header: " + path);
+
+		long length = CEN_SIZE + (map.getShort(pos + 28) & 0xFFFF)
+				+ (map.getShort(pos + 30) & 0xFFFF) + (map.getShort(pos + 32) & 0xFFFF);
+		if(pos + length > end) throw new ZipException("Truncated central directory header: " + path);
+		return within(map, pos, length, path);
+	}
+
+	private static int within(ByteBuffer map, long pos, long length, Path path) throws ZipException {
+		if(pos < 0 || length < 0 || pos + length > map.limit())
+			throw new ZipException("Truncated zip file: " + path);
+		return (int) pos;
+	}
+
+	private static int findEndOfCentralDirectory(ByteBuffer map) throws ZipException {
+		// The record sits at the end of the file, only followed by a variable length comment
+		int last = map.limit() - EOCD_SIZE;
+		int first = Math.max(0, last - MAX_COMMENT);
+
+		for(int pos = last; pos >= first; pos--)
+			if(map.getInt(pos) == EOCD_SIGNATURE
+					&& pos + EOCD_SIZE + (map.getShort(pos + 20) & 0xFFFF) == map.limit())
+				return pos;
+
+		throw new ZipException("End of central directory not found");
+	}
+
+	private static boolean matches(ByteBuffer map, int pos, byte[] name) {
+		for(int i = 0; i < name.length; i++)
+			if(map.get(pos + i) != name[i]) return false;
+		return true;
+	}
+
+	private static ByteBuffer extract(ByteBuffer map, int cen, Path path) throws ZipException {
+		int flags = map.getShort(cen + 8) & 0xFFFF;
+		int method = map.getShort(cen + 10) & 0xFFFF;
+		long compressed = map.getInt(cen + 20) & 0xFFFFFFFFL;
+		long uncompressed = map.getInt(cen + 24) & 0xFFFFFFFFL;
+		long local = map.getInt(cen + 42) & 0xFFFFFFFFL;
+
+		if((flags & 1) != 0) throw new ZipException("Encrypted entries are not supported: " + path);
+		if(uncompressed > MAX_ENTRY_SIZE) throw new ZipException("Entry too large: " + path);
+		if(map.getInt(within(map, local, LOC_SIZE, path)) != LOC_SIGNATURE)
+			throw new ZipException("Invalid local file header: " + path);
+
+		// Sizes are taken from the central directory, the local header may defer them to a data descriptor
+		long data = local + LOC_SIZE
+				+ (map.getShort((int) local + 26) & 0xFFFF) + (map.getShort((int) local + 28) & 0xFFFF);
+
+		ByteBuffer raw = map.slice(within(map, data, compressed, path), (int) compressed);
+		return switch(method) {
+			case STORED -> stored(raw, (int) uncompressed, path);
+			case DEFLATED -> inflate(raw, (int) uncompressed, path);
+			default -> throw new ZipException("Unsupported compression method " + method + ": " + path);
+		};
+	}
+
+	private static ByteBuffer stored(ByteBuffer raw, int size, Path path) throws ZipException {
+		if(raw.remaining() != size) throw new ZipException("Invalid stored entry size: " + path);
+		return ByteBuffer.allocate(size).put(raw).flip();
+	}
+
+	private static ByteBuffer inflate(ByteBuffer raw, int size, Path path) throws ZipException {
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(raw);
+			ByteBuffer out = ByteBuffer.allocate(size);
+
+			while(!inflater.finished() && out.hasRemaining())
+				if(inflater.inflate(out) == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+
+			if(out.hasRemaining()) throw new ZipException("Truncated deflated entry: " + path);
+			return out.flip();
+		} catch(DataFormatException e) {
+			throw new ZipException("Invalid deflated entry " + path + ": " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+}
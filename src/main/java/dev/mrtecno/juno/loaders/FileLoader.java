@@ -1,5 +1,8 @@
 package dev.mrtecno.juno.loaders;
 
+import dev.mrtecno.juno.events.ClassLoaderEvent;
+import dev.mrtecno.juno.events.JarCheckEvent;
+import dev.mrtecno.juno.plugin.LoaderChanges;
 import dev.mrtecno.juno.plugin.Plugin;
 import dev.mrtecno.juno.plugin.PluginLoader;
 import dev.mrtecno.juno.plugin.PluginManifest;
@@ -8,6 +11,7 @@ import dev.mrtecno.juno.plugin.identifier.PluginWildcard;
 import dev.mrtecno.juno.plugin.identifier.Version;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
@@ -19,11 +23,22 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.ref.WeakReference;
 import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.jar.JarFile;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 
 @Getter
 @RequiredArgsConstructor
@@ -31,8 +46,24 @@ public class FileLoader implements PluginLoader, LocalLoader {
 	private final File directory;
 	private ClassLoader parentClassLoader;
 
-	private final Map<PluginManifest, File> discoveredFiles = new HashMap<>();
-	private final Map<PluginIdentifier, WeakReference<URLClassLoader>> openLoaders = new HashMap<>();
+	private final Map<PluginManifest, File> discoveredFiles = new ConcurrentHashMap<>();
+	private final Map<PluginIdentifier, WeakReference<PluginClassLoader>> openLoaders = new ConcurrentHashMap<>();
+
+	@Setter
+	private boolean parallelScan = true;
+	@Setter
+	private boolean cacheManifests = true;
+	@Setter
+	private boolean mappedReader = true;
+	private volatile ManifestCache manifestCache;
+
+	// Unloaded loaders are left to the GC, this only watches whether it actually takes them
+	private final LoaderTracker loaderTracker = new LoaderTracker(importers(openLoaders));
+
+	@Setter
+	private Duration debounce = Duration.ofMillis(200);
+	private WatchService watchService;
+	private Thread watcher;
 
 	public void discoverFiles() {
 		discoveredFiles.clear();
@@ -40,50 +71,254 @@ public class FileLoader implements PluginLoader, LocalLoader {
 			throw new IllegalArgumentException(
 					"Could not create directory: " + directory.getAbsolutePath());
 
-		if(directory.isFile())
+		if(directory.isFile()) {
 			checkJar(directory).ifPresent(
 					m -> discoveredFiles.put(m, directory));
+			return;
+		}
 
 		File[] files = directory.listFiles();
 		if(files == null) return;
 
-		for(File file : files)
-			checkJar(file).ifPresent(
-					m -> discoveredFiles.put(m, file));
+		ManifestCache cache = manifestCache;
+		if(cacheManifests && cache == null) {
+			cache = new ManifestCache(new File(directory, ManifestCache.FILE_NAME));
+			cache.read();
+			manifestCache = cache;
+		} else if(!cacheManifests) manifestCache = cache = null;
+
+		// Sorted so that the same file always wins between duplicate manifests
+		List<File> jars = Arrays.stream(files).filter(f -> f.getName().endsWith(".jar")).sorted().toList();
+		Map<File, PluginManifest> scanned = scanFiles(jars);
+
+		if(cache != null) {
+			cache.retain(jars);
+			cache.write();
+		}
+
+		Map<PluginIdentifier, File> ids = new HashMap<>();
+		for(File file : jars) {
+			PluginManifest manifest = scanned.get(file);
+			if(manifest == null) continue;
+
+			File previous = ids.putIfAbsent(manifest.id(), file);
+			if(previous == null) discoveredFiles.put(manifest, file);
+			else Logger.getAnonymousLogger().log(Level.WARNING, "Ignoring plugin " + manifest.id()
+					+ " in " + file.getName() + ", already provided by " + previous.getName());
+		}
+	}
+
+	public synchronized void watch(Consumer<LoaderChanges> listener) {
+		if(watcher != null)
+			throw new IllegalStateException("Already watching " + directory.getPath());
+		if(!directory.isDirectory())
+			throw new IllegalStateException("Can only watch a plugins directory: " + directory.getPath());
+
+		try {
+			watchService = directory.toPath().getFileSystem().newWatchService();
+			directory.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		} catch(IOException e) {
+			throw new IllegalStateException("Could not watch directory: " + directory.getPath(), e);
+		}
+
+		WatchService service = watchService;
+		watcher = Thread.ofPlatform().daemon().name("juno-file-watcher")
+				.start(() -> watchLoop(service, listener));
+	}
+
+	public synchronized void stopWatching() {
+		if(watcher == null) return;
+
+		try {
+			watchService.close();
+		} catch(IOException ignored) {}
+
+		watcher.interrupt();
+		watcher = null;
+		watchService = null;
+	}
+
+	private void watchLoop(WatchService service, Consumer<LoaderChanges> listener) {
+		try {
+			while(!Thread.currentThread().isInterrupted()) {
+				Set<File> changed = new HashSet<>();
+				boolean overflow = drain(service.take(), changed);
+
+				// Keep collecting until the directory has been quiet for a while,
+				// a single copy fires several events for the same jar
+				WatchKey key;
+				while((key = service.poll(debounce.toMillis(), TimeUnit.MILLISECONDS)) != null)
+					overflow |= drain(key, changed);
+
+				LoaderChanges changes = rescan(overflow ? null : changed);
+				if(!changes.isEmpty()) try {
+					listener.accept(changes);
+				} catch(Exception e) {
+					Logger.getAnonymousLogger().log(Level.SEVERE,
+							"Could not apply plugin changes from " + directory.getPath(), e);
+				}
+			}
+		} catch(InterruptedException | ClosedWatchServiceException ignored) {}
+	}
+
+	private boolean drain(WatchKey key, Set<File> changed) {
+		boolean overflow = false;
+		for(WatchEvent<?> event : key.pollEvents())
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW) overflow = true;
+			else if(event.context() instanceof Path path && path.toString().endsWith(".jar"))
+				changed.add(new File(directory, path.toString()));
+
+		key.reset();
+		return overflow;
+	}
+
+	// Checks again only the given jars, or every jar in the directory when null
+	public synchronized LoaderChanges rescan(Collection<File> files) {
+		Map<File, PluginManifest> known = new HashMap<>();
+		discoveredFiles.forEach((m, f) -> known.put(f, m));
+
+		if(files == null) {
+			File[] listed = directory.listFiles();
+			Set<File> all = new HashSet<>(known.keySet());
+			if(listed != null) Arrays.stream(listed)
+					.filter(f -> f.getName().endsWith(".jar")).forEach(all::add);
+			files = all;
+		}
+
+		ManifestCache cache = manifestCache;
+		List<PluginManifest> added = new ArrayList<>(), removed = new ArrayList<>();
+		for(File file : files.stream().sorted().toList()) {
+			PluginManifest previous = known.get(file);
+			if(previous != null && file.isFile() && cache != null
+					&& cache.entries().get(file.getAbsolutePath()) instanceof ManifestCache.Entry e
+					&& e.matches(file.length(), file.lastModified()))
+				continue; // Untouched since it was discovered
+
+			if(!file.isFile() && cache != null) cache.remove(file);
+
+			Optional<PluginManifest> current;
+			try {
+				current = file.isFile() ? scanJar(file) : Optional.empty();
+			} catch(Exception e) {
+				// Most likely still being written, the next event will pick it up
+				Logger.getAnonymousLogger().log(Level.WARNING, "Could not scan " + file.getName(), e);
+				continue;
+			}
+
+			if(previous != null) {
+				discoveredFiles.remove(previous);
+				removed.add(previous);
+			}
+
+			current.ifPresent(m -> {
+				Optional<File> owner = discoveredFiles.entrySet().stream()
+						.filter(e -> e.getKey().id().equals(m.id()))
+						.map(Map.Entry::getValue).findFirst();
+
+				if(owner.isPresent())
+					Logger.getAnonymousLogger().log(Level.WARNING, "Ignoring plugin " + m.id()
+							+ " in " + file.getName() + ", already provided by " + owner.get().getName());
+				else {
+					discoveredFiles.put(m, file);
+					added.add(m);
+				}
+			});
+		}
+
+		if(cache != null) cache.write();
+		return new LoaderChanges(this, added, removed);
+	}
+
+	protected Map<File, PluginManifest> scanFiles(List<File> files) {
+		Map<File, PluginManifest> scanned = new ConcurrentHashMap<>();
+		Map<File, Exception> errors = new ConcurrentHashMap<>();
+
+		Runnable[] tasks = files.stream().<Runnable>map(f -> () -> {
+			try {
+				scanJar(f).ifPresent(m -> scanned.put(f, m));
+			} catch(Exception e) {
+				errors.put(f, e);
+			}
+		}).toArray(Runnable[]::new);
+
+		if(parallelScan && tasks.length > 1)
+			try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+				for(Runnable task : tasks) executor.execute(task);
+			} // Closing waits for every scan to finish
+		else for(Runnable task : tasks) task.run();
+
+		if(!errors.isEmpty()) {
+			StringBuilder sb = new StringBuilder("Could not scan ");
+			sb.append(errors.size()).append(" plugin files in ").append(directory.getPath()).append("\n");
+			errors.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(e -> sb.append("\t\t- ")
+					.append(e.getKey().getName()).append(": ").append(e.getValue()).append("\n"));
+			sb.delete(sb.length() - 1, sb.length()); // Remove last newline
+
+			IllegalStateException exception = new IllegalStateException(sb.toString());
+			errors.values().forEach(exception::addSuppressed);
+			throw exception;
+		}
+
+		return scanned;
 	}
 
-	@SuppressWarnings("unchecked")
 	public Optional<PluginManifest> checkJar(File file) {
-		if(!file.getName().endsWith(".jar")) return Optional.empty();
+		JarCheckEvent event = new JarCheckEvent();
+		event.begin();
 
-		try(JarFile jarFile = new JarFile(file)) {
-			ZipEntry manifest = jarFile.getEntry("manifest.json");
-			if(manifest == null) return Optional.empty();
+		Optional<PluginManifest> manifest = readManifest(file).map(this::parseManifest);
+		event.commit(file, manifest, false);
+		return manifest;
+	}
 
-			try(BufferedReader reader = new BufferedReader(
-					new InputStreamReader(jarFile.getInputStream(manifest)))) {
-				JSONObject parsed = (JSONObject) new JSONParser().parse(reader);
+	protected Optional<PluginManifest> scanJar(File file) {
+		ManifestCache cache = manifestCache;
+		if(cache == null) return checkJar(file);
+
+		JarCheckEvent event = new JarCheckEvent();
+		event.begin();
 
-				PluginManifest.PluginManifestBuilder builder = PluginManifest.builder();
+		Optional<PluginManifest> manifest = cache.get(file, this::readManifest).map(this::parseManifest);
+		event.commit(file, manifest, true);
+		return manifest;
+	}
 
-				String name = (String) parsed.get("name");
+	public Optional<JSONObject> readManifest(File file) {
+		if(!file.getName().endsWith(".jar")) return Optional.empty();
 
-				Object versions = parsed.get("version");
+		if(mappedReader) try {
+			return readMappedManifest(file);
+		} catch(ZipException e) {
+			// Anything the lightweight reader can't handle still goes through JarFile
+			return readJarManifest(file);
+		}
+
+		return readJarManifest(file);
+	}
 
-				Version version;
-				if(versions instanceof JSONArray array)
-					version = new Version(
-						(Integer) array.get(0), (Integer) array.get(1), (Integer) array.get(2));
-				else version = Version.parseVersion((String) versions);
+	public Optional<JSONObject> readMappedManifest(File file) throws ZipException {
+		try {
+			Optional<ByteBuffer> manifest = CentralDirectoryReader.readEntry(file.toPath(), "manifest.json");
+			if(manifest.isEmpty()) return Optional.empty();
 
-				builder.id(new PluginIdentifier(name, version));
-				builder.entrypoint((String) parsed.get("entrypoint"));
+			return Optional.of((JSONObject) new JSONParser().parse(
+					StandardCharsets.UTF_8.decode(manifest.get()).toString()));
+		} catch(ZipException e) {
+			throw e;
+		} catch(ParseException | IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
 
-				List<String> dependencies = (JSONArray) parsed.get("dependencies");
-				builder.dependencies(dependencies.stream()
-						.map(PluginWildcard::parseWildcard).toArray(PluginWildcard[]::new));
+	public Optional<JSONObject> readJarManifest(File file) {
+		try(JarFile jarFile = new JarFile(file)) {
+			ZipEntry manifest = jarFile.getEntry("manifest.json");
+			if(manifest == null) return Optional.empty();
 
-				return Optional.of(builder.loader(this).build());
+			try(BufferedReader reader = new BufferedReader(
+					new InputStreamReader(jarFile.getInputStream(manifest)))) {
+				return Optional.of((JSONObject) new JSONParser().parse(reader));
 			} catch (ParseException e) {
 				throw new RuntimeException(e);
 			}
@@ -92,6 +327,30 @@ public class FileLoader implements PluginLoader, LocalLoader {
 		}
 	}
 
+	@SuppressWarnings("unchecked")
+	public PluginManifest parseManifest(JSONObject parsed) {
+		PluginManifest.PluginManifestBuilder builder = PluginManifest.builder();
+
+		String name = (String) parsed.get("name");
+
+		Object versions = parsed.get("version");
+
+		Version version;
+		if(versions instanceof JSONArray array)
+			version = new Version(((Number) array.get(0)).intValue(),
+					((Number) array.get(1)).intValue(), ((Number) array.get(2)).intValue());
+		else version = Version.parseVersion((String) versions);
+
+		builder.id(new PluginIdentifier(name, version));
+		builder.entrypoint((String) parsed.get("entrypoint"));
+
+		List<String> dependencies = (JSONArray) parsed.get("dependencies");
+		builder.dependencies(dependencies.stream()
+				.map(PluginWildcard::parseWildcard).toArray(PluginWildcard[]::new));
+
+		return builder.loader(this).build();
+	}
+
 	@Override
 	public void initialize(ClassLoader parent) {
 		discoverFiles();
@@ -103,26 +362,77 @@ public class FileLoader implements PluginLoader, LocalLoader {
 		return discoveredFiles().keySet();
 	}
 
+	// Hashes the content of every discovered jar, anything replaced in place is caught too.
+	// The cache keeps the hashes, only jars with a new size or time are read again
+	@Override
+	public Optional<String> fingerprint() {
+		ManifestCache cache = manifestCache;
+		String fingerprint = Fingerprint.of(discoveredFiles().values().stream().sorted()
+				.map(f -> f.getName() + ":" + (cache != null ? cache.hash(f, Fingerprint::of) : Fingerprint.of(f))).toList());
+
+		if(cache != null) cache.write();
+		return Optional.of(fingerprint);
+	}
+
 	// REMEMBER TO DESTROY THIS REFERENCE
-	protected URLClassLoader requireLoader(PluginManifest manifest) {
-		URLClassLoader loader;
+	protected PluginClassLoader requireLoader(PluginManifest manifest, List<PluginManifest> dependencies) {
+		PluginClassLoader loader;
 
 		if(!openLoaders().containsKey(manifest.id()) || (loader = openLoaders.get(manifest.id()).get()) == null) {
+			ClassLoaderEvent event = new ClassLoaderEvent();
+			event.begin();
+
+			// Dependencies from loaders without class loaders of their own are on the parent already
+			List<PluginClassLoader> imports = dependencies.stream()
+					.map(d -> d.loader().classLoader(d))
+					.flatMap(Optional::stream).filter(PluginClassLoader.class::isInstance)
+					.map(PluginClassLoader.class::cast).toList();
+
+			File file = discoveredFiles.get(manifest);
 			try {
-				loader = new URLClassLoader(new URL[] {discoveredFiles.get(manifest).toURI().toURL()}, parentClassLoader);
+				loader = new PluginClassLoader(manifest.name(), file.toURI().toURL(),
+						PluginClassLoader.packagesOf(entryNames(file)), imports, parentClassLoader);
 			} catch (MalformedURLException e) {
 				throw new IllegalArgumentException("Could not create class loader for plugin " + manifest.name());
 			}
+
+			event.commit(manifest, file);
 			openLoaders.put(manifest.id(), new WeakReference<>(loader));
 		}
 
 		return loader;
 	}
 
+	public List<String> entryNames(File file) {
+		if(mappedReader) try {
+			return CentralDirectoryReader.entryNames(file.toPath());
+		} catch(ZipException _) {
+			// Same as manifests, JarFile gets whatever the mapped reader can't handle
+		} catch(IOException e) {
+			throw new IllegalArgumentException("Could not read " + file.getName(), e);
+		}
+
+		try(JarFile jarFile = new JarFile(file)) {
+			return jarFile.stream().map(ZipEntry::getName).toList();
+		} catch(IOException e) {
+			throw new IllegalArgumentException("Could not read " + file.getName(), e);
+		}
+	}
+
+	@Override
+	public Optional<ClassLoader> classLoader(PluginManifest manifest) {
+		return Optional.ofNullable(openLoaders().get(manifest.id())).map(WeakReference::get);
+	}
+
 	@Override
 	public Plugin load(PluginManifest manifest) {
+		return load(manifest, List.of());
+	}
+
+	@Override
+	public Plugin load(PluginManifest manifest, List<PluginManifest> dependencies) {
 		try {
-			return Class.forName(manifest.entrypoint(), true, requireLoader(manifest))
+			return Class.forName(manifest.entrypoint(), true, requireLoader(manifest, dependencies))
 					.asSubclass(Plugin.class).getConstructor(PluginManifest.class).newInstance(manifest);
 		} catch (ReflectiveOperationException e) {
 			throw new IllegalArgumentException("Could not load plugin " + manifest.name(), e);
@@ -131,19 +441,29 @@ public class FileLoader implements PluginLoader, LocalLoader {
 
 	@Override
 	public void unload(Plugin pl) {
-		WeakReference<URLClassLoader> ref = openLoaders().get(pl.id());
+		WeakReference<PluginClassLoader> ref = openLoaders().get(pl.id());
+		PluginClassLoader loader = ref.get();
 
-		if(!ref.refersTo(null)) {
+		if(loader != null) {
 			try {
-				Objects.requireNonNull(ref.get()).close();
+				loader.close();
 			} catch (IOException e) {
 				throw new IllegalArgumentException("Could not close class loader for plugin " + pl.manifest().name());
-			} catch(NullPointerException ignored) {} // In case the GC sweeps us
+			}
+
+			loaderTracker.track(pl.id(), loader);
 		}
 
 		ref.clear();
 		openLoaders().remove(pl.id());
+	}
 
-		System.gc(); // Ask GC to clean up the class loader (hopefully)
+	// Loaders of other plugins still linked against this one. Only given the open loaders,
+	// the tracker is built before the rest of the loader
+	private static Function<ClassLoader, List<String>> importers(
+			Map<PluginIdentifier, WeakReference<PluginClassLoader>> openLoaders) {
+		return loader -> openLoaders.entrySet().stream()
+				.filter(e -> e.getValue().get() instanceof PluginClassLoader l && l.importsFrom(loader))
+				.map(e -> "class loader of plugin " + e.getKey()).toList();
 	}
 }
@@ -0,0 +1,52 @@
+package dev.mrtecno.juno.loaders;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class Fingerprint {
+	private static final String ALGORITHM = "SHA-256";
+
+	public static String of(List<String> lines) {
+		MessageDigest digest = digest();
+		for(String line : lines) {
+			digest.update(line.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) '\n');
+		}
+
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	// Mapped rather than streamed, the digest reads it straight from the page cache
+	public static String of(File file) {
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MessageDigest digest = digest();
+			long size = channel.size();
+			for(long pos = 0; pos < size; pos += Integer.MAX_VALUE)
+				digest.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(Integer.MAX_VALUE, size - pos)));
+
+			return HexFormat.of().formatHex(digest.digest());
+		} catch(IOException e) {
+			throw new UncheckedIOException("Could not hash " + file.getPath(), e);
+		}
+	}
+
+	private static MessageDigest digest() {
+		try {
+			return MessageDigest.getInstance(ALGORITHM);
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(ALGORITHM + " is not available", e);
+		}
+	}
+}
@@ -49,6 +49,12 @@ public class IntegratedLoader implements PluginLoader, LocalLoader {
 		throw new UnsupportedOperationException("Cannot unload integrated plugins");
 	}
 
+	// The classes come with the application, the list is all that can change between runs
+	@Override
+	public Optional<String> fingerprint() {
+		return Optional.of(Fingerprint.of(classNames().stream().sorted().toList()));
+	}
+
 	public static IntegratedLoader fromListFile(String resource) {
 		return fromListFile(IntegratedLoader.class.getResourceAsStream(resource));
 	}
@@ -0,0 +1,168 @@
+package dev.mrtecno.juno.loaders;
+
+import dev.mrtecno.juno.events.ClassLoaderCollectionEvent;
+import dev.mrtecno.juno.plugin.identifier.PluginIdentifier;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+// Follows the class loaders of unloaded plugins until the GC takes them, without ever asking for a collection.
+// One still there after a few collections is reported along with whatever seems to be holding it.
+// Only collections that can unload classes count, young ones never take a class loader with them
+@RequiredArgsConstructor
+public class LoaderTracker {
+	private static final Cleaner CLEANER = Cleaner.create();
+
+	// Full collections seen by any tracker, counted from the notifications since beans don't tell kinds apart
+	private static final AtomicLong MAJOR_COLLECTIONS = new AtomicLong();
+	private static volatile boolean counting;
+
+	// Other places the owner knows a loader can be retained from, on top of the threads checked here
+	private final Function<ClassLoader, List<String>> retainers;
+
+	@Getter @Setter
+	private volatile int threshold = 3;
+
+	private final Map<PluginIdentifier, Tracked> pending = new ConcurrentHashMap<>();
+	private volatile boolean listening;
+
+	public LoaderTracker() {
+		this(_ -> List.of());
+	}
+
+	public void track(PluginIdentifier id, ClassLoader loader) {
+		listen();
+
+		// The cleaning action must not reach the loader, it would never become phantom reachable
+		Tracked tracked = new Tracked(id, new WeakReference<>(loader), collections());
+		pending.put(id, tracked);
+		CLEANER.register(loader, () -> collected(tracked));
+	}
+
+	// Plugins whose loaders were given up but not collected yet
+	public Set<PluginIdentifier> pending() {
+		return Set.copyOf(pending.keySet());
+	}
+
+	public Set<PluginIdentifier> leaks() {
+		return pending.values().stream().filter(t -> t.reported)
+				.map(t -> t.id).collect(Collectors.toUnmodifiableSet());
+	}
+
+	// Runs after every collection that can unload classes, can be called directly too
+	public void check() {
+		long now = collections();
+		for(Tracked tracked : pending.values()) {
+			if(tracked.reported || now - tracked.since < threshold) continue;
+
+			ClassLoader loader = tracked.loader.get();
+			if(loader == null) continue; // Unreachable already, the cleaner just didn't get to it
+
+			tracked.reported = true;
+			List<String> suspects = retainers(loader);
+			Logger.getAnonymousLogger().log(Level.WARNING, "Class loader of plugin " + tracked.id
+					+ " is still reachable after " + (now - tracked.since) + " garbage collections"
+					+ (suspects.isEmpty() ? "" : ", possibly retained by:\n\t\t- " + String.join("\n\t\t- ", suspects)));
+		}
+	}
+
+	private void collected(Tracked tracked) {
+		pending.remove(tracked.id, tracked);
+		new ClassLoaderCollectionEvent().commit(tracked.id, collections() - tracked.since, tracked.reported);
+
+		if(tracked.reported) Logger.getAnonymousLogger().log(Level.INFO,
+				"Class loader of plugin " + tracked.id + " was collected after all");
+	}
+
+	private List<String> retainers(ClassLoader loader) {
+		List<String> suspects = new ArrayList<>();
+		for(Thread thread : Thread.getAllStackTraces().keySet()) {
+			if(thread.getClass().getClassLoader() == loader)
+				suspects.add("thread " + thread.getName() + " of class " + thread.getClass().getName());
+			else if(thread.getContextClassLoader() == loader)
+				suspects.add("context class loader of thread " + thread.getName());
+		}
+
+		try {
+			suspects.addAll(retainers.apply(loader));
+		} catch(RuntimeException e) {
+			Logger.getAnonymousLogger().log(Level.FINE, "Could not look for class loader retainers", e);
+		}
+
+		return suspects;
+	}
+
+	private void listen() {
+		count();
+		if(listening) return;
+		synchronized(this) {
+			if(listening) return;
+
+			for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+				if(gc instanceof NotificationEmitter emitter)
+					emitter.addNotificationListener((n, _) -> {
+						if(unloadsClasses(n)) check();
+					}, null, null);
+			listening = true;
+		}
+	}
+
+	private static void count() {
+		if(counting) return;
+		synchronized(LoaderTracker.class) {
+			if(counting) return;
+
+			for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+				if(gc instanceof NotificationEmitter emitter)
+					emitter.addNotificationListener((n, _) -> {
+						if(unloadsClasses(n)) MAJOR_COLLECTIONS.incrementAndGet();
+					}, null, null);
+			counting = true;
+		}
+	}
+
+	// Full collections and the end of a concurrent old generation cycle, where G1 and the
+	// like unload classes. Pauses of young collections never do
+	private static boolean unloadsClasses(Notification notification) {
+		if(!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+			return false;
+
+		String action = GarbageCollectionNotificationInfo
+				.from((CompositeData) notification.getUserData()).getGcAction();
+		return action.equals("end of major GC") || action.equals("end of concurrent GC");
+	}
+
+	private static long collections() {
+		return MAJOR_COLLECTIONS.get();
+	}
+
+	private static final class Tracked {
+		private final PluginIdentifier id;
+		private final WeakReference<ClassLoader> loader;
+		private final long since;
+		private volatile boolean reported;
+
+		private Tracked(PluginIdentifier id, WeakReference<ClassLoader> loader, long since) {
+			this.id = id;
+			this.loader = loader;
+			this.since = since;
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package dev.mrtecno.juno.loaders;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+@Getter
+@RequiredArgsConstructor
+public class ManifestCache {
+	public static final String FILE_NAME = ".manifests.json";
+	private static final int FORMAT = 1;
+
+	private final File file;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private final Map<String, Hash> hashes = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	// Changes and writes are serialized on the cache, so a write never loses one made while it ran.
+	// Jars themselves are read outside of it, scans can still run in parallel
+	private volatile boolean dirty;
+
+	public Optional<JSONObject> get(File jar, Function<File, Optional<JSONObject>> reader) {
+		String key = jar.getAbsolutePath();
+		long size = jar.length(), modified = jar.lastModified();
+
+		Entry entry = entries.get(key);
+		if(entry != null && entry.matches(size, modified)) {
+			hits.incrementAndGet();
+			return Optional.ofNullable(entry.manifest());
+		}
+
+		misses.incrementAndGet();
+		Optional<JSONObject> manifest = reader.apply(jar);
+
+		synchronized(this) {
+			entries.put(key, new Entry(size, modified, manifest.orElse(null)));
+			dirty = true;
+		}
+
+		return manifest;
+	}
+
+	// Content hashes are kept the same way, a jar is only read again once its size or time changed
+	public String hash(File jar, Function<File, String> hasher) {
+		String key = jar.getAbsolutePath();
+		long size = jar.length(), modified = jar.lastModified();
+
+		Hash hash = hashes.get(key);
+		if(hash != null && hash.matches(size, modified)) return hash.hash();
+
+		String computed = hasher.apply(jar);
+		synchronized(this) {
+			hashes.put(key, new Hash(size, modified, computed));
+			dirty = true;
+		}
+
+		return computed;
+	}
+
+	public synchronized void retain(Collection<File> jars) {
+		Set<String> keys = jars.stream().map(File::getAbsolutePath).collect(Collectors.toSet());
+		if(entries.keySet().retainAll(keys) | hashes.keySet().retainAll(keys)) dirty = true;
+	}
+
+	public synchronized void remove(File jar) {
+		if(entries.remove(jar.getAbsolutePath()) != null | hashes.remove(jar.getAbsolutePath()) != null) dirty = true;
+	}
+
+	public synchronized void invalidate() {
+		entries.clear();
+		hashes.clear();
+		dirty = true;
+	}
+
+	public synchronized void read() {
+		entries.clear();
+		hashes.clear();
+		if(!file.isFile()) return;
+
+		try(Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			JSONObject parsed = (JSONObject) new JSONParser().parse(reader);
+			if(!(parsed.get("format") instanceof Number format) || format.intValue() != FORMAT) return;
+
+			((Map<?, ?>) parsed.get("entries")).forEach((k, v) -> {
+				JSONObject entry = (JSONObject) v;
+				entries.put((String) k, new Entry(((Number) entry.get("size")).longValue(),
+						((Number) entry.get("modified")).longValue(), (JSONObject) entry.get("manifest")));
+			});
+
+			// Older caches have no hashes yet, they're just computed again
+			if(parsed.get("hashes") instanceof JSONObject stored) ((Map<?, ?>) stored).forEach((k, v) -> {
+				JSONObject hash = (JSONObject) v;
+				hashes.put((String) k, new Hash(((Number) hash.get("size")).longValue(),
+						((Number) hash.get("modified")).longValue(), (String) Objects.requireNonNull(hash.get("hash"))));
+			});
+		} catch(IOException | ParseException | ClassCastException | NullPointerException e) {
+			// A broken cache only costs a rescan
+			entries.clear();
+			hashes.clear();
+			Logger.getAnonymousLogger().log(Level.WARNING,
+					"Discarding unreadable manifest cache " + file.getPath(), e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public synchronized void write() {
+		if(!dirty) return;
+
+		JSONObject serialized = new JSONObject();
+		entries.forEach((k, v) -> {
+			JSONObject entry = new JSONObject();
+			entry.put("size", v.size());
+			entry.put("modified", v.modified());
+			entry.put("manifest", v.manifest());
+			serialized.put(k, entry);
+		});
+
+		JSONObject serializedHashes = new JSONObject();
+		hashes.forEach((k, v) -> {
+			JSONObject hash = new JSONObject();
+			hash.put("size", v.size());
+			hash.put("modified", v.modified());
+			hash.put("hash", v.hash());
+			serializedHashes.put(k, hash);
+		});
+
+		JSONObject root = new JSONObject();
+		root.put("format", FORMAT);
+		root.put("entries", serialized);
+		root.put("hashes", serializedHashes);
+
+		// Written aside and renamed over the old one, a crash can't leave a half written cache
+		Path target = file.toPath();
+		Path temp = null;
+		try {
+			temp = Files.createTempFile(target.toAbsolutePath().getParent(), file.getName(), ".tmp");
+			Files.writeString(temp, root.toJSONString(), StandardCharsets.UTF_8);
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			dirty = false;
+		} catch(IOException e) {
+			Logger.getAnonymousLogger().log(Level.WARNING,
+					"Could not write manifest cache " + file.getPath(), e);
+		} finally {
+			if(temp != null) try {
+				Files.deleteIfExists(temp);
+			} catch(IOException _) {}
+		}
+	}
+
+	public record Entry(long size, long modified, JSONObject manifest) {
+		public boolean matches(long size, long modified) {
+			return size() == size && modified() == modified;
+		}
+	}
+
+	public record Hash(long size, long modified, String hash) {
+		public boolean matches(long size, long modified) {
+			return size() == size && modified() == modified;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package dev.mrtecno.juno.loaders;
+
+import lombok.Getter;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.*;
+
+// Loads a plugin jar and sees the classes of everything the plugin depends on, however far.
+// Which loader owns a package is decided once here, lookups never probe loaders in turn
+public class PluginClassLoader extends URLClassLoader {
+	static {
+		registerAsParallelCapable();
+	}
+
+	@Getter
+	private final Set<String> packages;
+
+	// Packages of the dependencies, the closest dependency wins a package split between two
+	private final Map<String, PluginClassLoader> imports = new HashMap<>();
+
+	public PluginClassLoader(String name, URL jar, Collection<String> packages,
+							 List<PluginClassLoader> dependencies, ClassLoader parent) {
+		super(name, new URL[] { jar }, parent);
+		this.packages = Set.copyOf(packages);
+
+		dependencies.forEach(d -> d.packages().forEach(p -> imports.putIfAbsent(p, d)));
+		dependencies.forEach(d -> d.imports.forEach(imports::putIfAbsent));
+		imports.keySet().removeAll(this.packages);
+	}
+
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+		PluginClassLoader owner = imports.get(packageOf(name));
+		if(owner != null) return owner.loadClass(name, resolve);
+
+		// Own packages and everything else follow the usual parent first order
+		return super.loadClass(name, resolve);
+	}
+
+	public boolean importsFrom(ClassLoader loader) {
+		return imports.containsValue(loader);
+	}
+
+	@Override
+	public URL getResource(String name) {
+		int slash = name.lastIndexOf('/');
+		PluginClassLoader owner = slash > 0 ? imports.get(name.substring(0, slash).replace('/', '.')) : null;
+		return owner != null ? owner.getResource(name) : super.getResource(name);
+	}
+
+	// Jar entries to the packages they hold classes for, multi-release entries count for their base package
+	public static Set<String> packagesOf(Collection<String> entries) {
+		Set<String> packages = new HashSet<>();
+		for(String entry : entries) {
+			if(!entry.endsWith(".class")) continue;
+
+			String path = entry;
+			if(path.startsWith("META-INF/versions/")) {
+				int version = path.indexOf('/', "META-INF/versions/".length());
+				if(version < 0) continue;
+				path = path.substring(version + 1);
+			} else if(path.startsWith("META-INF/")) continue;
+
+			int slash = path.lastIndexOf('/');
+			if(slash > 0) packages.add(path.substring(0, slash).replace('/', '.'));
+		}
+
+		return packages;
+	}
+
+	private static String packageOf(String className) {
+		int dot = className.lastIndexOf('.');
+		return dot > 0 ? className.substring(0, dot) : "";
+	}
+}
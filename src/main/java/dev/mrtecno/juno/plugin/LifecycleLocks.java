@@ -0,0 +1,151 @@
+package dev.mrtecno.juno.plugin;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Plugin locks are held by a whole lifecycle operation rather than a thread, plugins
+// enabled on graph workers calling back into the manager are still part of it
+final class LifecycleLocks {
+	// Inherited so worker threads started by an operation act on its behalf
+	private static final InheritableThreadLocal<Operation> OPERATION = new InheritableThreadLocal<>();
+
+	private final Map<String, Operation> owners = new HashMap<>();
+	private final Map<String, Integer> holds = new HashMap<>();
+
+	private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+
+	<R> R locked(Collection<String> names, Supplier<R> action) {
+		return within(operation -> {
+			acquire(names, operation);
+			try {
+				return action.get();
+			} finally {
+				release(names, operation);
+			}
+		});
+	}
+
+	void locked(Collection<String> names, Runnable action) {
+		locked(names, () -> {
+			action.run();
+			return null;
+		});
+	}
+
+	// Callers asking for the same thing while it's running wait for it instead of repeating it.
+	// One already holding locks never waits though, the other operation could be queued behind them
+	@SuppressWarnings("unchecked")
+	<R> R shared(String key, Supplier<R> action) {
+		return within(operation -> {
+			Flight flight = new Flight(operation, new CompletableFuture<>());
+			Flight running = flights.putIfAbsent(key, flight);
+
+			if(running != null) {
+				if(running.operation() == operation || operation.holding > 0) return action.get();
+				return (R) join(running.result(), operation);
+			}
+
+			try {
+				R result = action.get();
+				flight.result().complete(result);
+				return result;
+			} catch(Throwable t) {
+				flight.result().completeExceptionally(t);
+				throw t;
+			} finally {
+				flights.remove(key, flight);
+			}
+		});
+	}
+
+	void shared(String key, Runnable action) {
+		shared(key, () -> {
+			action.run();
+			return null;
+		});
+	}
+
+	// Starts an operation that gives up with a CancellationException when interrupted while
+	// waiting, rather than carrying on once it gets its turn. Meant for a thread of its own
+	<R> R interruptibly(Supplier<R> action) {
+		return within(new Operation(true), _ -> action.get());
+	}
+
+	private static <R> R within(Function<Operation, R> action) {
+		Operation current = OPERATION.get();
+		if(current != null && !current.finished) return action.apply(current);
+		return within(new Operation(false), action);
+	}
+
+	private static <R> R within(Operation operation, Function<Operation, R> action) {
+		OPERATION.set(operation);
+		try {
+			return action.apply(operation);
+		} finally {
+			// Threads the plugin started on its own may still carry it, they must not keep its locks
+			operation.finished = true;
+			OPERATION.remove();
+		}
+	}
+
+	// All or nothing, an operation never waits while holding only part of what it asked for.
+	// Callers ask for everything they'll touch up front, nested calls then only re-enter
+	private synchronized void acquire(Collection<String> names, Operation operation) {
+		boolean interrupted = false;
+		while(names.stream().anyMatch(n -> owners.getOrDefault(n, operation) != operation))
+			try {
+				wait();
+			} catch(InterruptedException e) {
+				if(operation.interruptible) throw new CancellationException("Interrupted waiting for " + names);
+				interrupted = true;
+			}
+
+		names.forEach(n -> {
+			owners.put(n, operation);
+			holds.merge(n, 1, Integer::sum);
+		});
+		operation.holding++;
+
+		if(interrupted) Thread.currentThread().interrupt();
+	}
+
+	private synchronized void release(Collection<String> names, Operation operation) {
+		names.forEach(n -> {
+			if(holds.merge(n, -1, Integer::sum) == 0) {
+				holds.remove(n);
+				owners.remove(n, operation);
+			}
+		});
+		operation.holding--;
+
+		notifyAll();
+	}
+
+	private static Object join(CompletableFuture<?> result, Operation operation) {
+		try {
+			if(!operation.interruptible) return result.join();
+			return result.get();
+		} catch(CompletionException | ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException r) throw r;
+			if(e.getCause() instanceof Error r) throw r;
+			throw new CompletionException(e.getCause());
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted waiting for another operation");
+		}
+	}
+
+	private static final class Operation {
+		private final boolean interruptible;
+		private volatile boolean finished;
+		private volatile int holding;
+
+		private Operation(boolean interruptible) {
+			this.interruptible = interruptible;
+		}
+	}
+
+	private record Flight(Operation operation, CompletableFuture<Object> result) {}
+}
@@ -0,0 +1,10 @@
+package dev.mrtecno.juno.plugin;
+
+import java.util.Collection;
+
+public record LoaderChanges(PluginLoader loader, Collection<PluginManifest> added,
+							Collection<PluginManifest> removed) {
+	public boolean isEmpty() {
+		return added().isEmpty() && removed().isEmpty();
+	}
+}
@@ -0,0 +1,132 @@
+package dev.mrtecno.juno.plugin;
+
+import dev.mrtecno.juno.plugin.identifier.PluginIdentifier;
+import dev.mrtecno.juno.plugin.identifier.Version;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// What the last successful resolution ended up with, reused as is while no loader has changed
+@Getter
+@RequiredArgsConstructor
+public class Lockfile {
+	public static final String FILE_NAME = "plugins.lock";
+	private static final int FORMAT = 1;
+
+	private final File file;
+
+	public Optional<Plan> read() {
+		if(!file.isFile()) return Optional.empty();
+
+		try(Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			JSONObject parsed = (JSONObject) new JSONParser().parse(reader);
+			if(!(parsed.get("format") instanceof Number format) || format.intValue() != FORMAT)
+				return Optional.empty();
+
+			List<String> fingerprints = new ArrayList<>();
+			for(Object fingerprint : (JSONArray) parsed.get("fingerprints")) fingerprints.add((String) fingerprint);
+
+			List<List<String>> layers = new ArrayList<>();
+			for(Object layer : (JSONArray) parsed.get("layers")) {
+				List<String> names = new ArrayList<>();
+				for(Object name : (JSONArray) layer) names.add((String) name);
+				layers.add(names);
+			}
+
+			return Optional.of(new Plan(fingerprints, identifiers((JSONObject) parsed.get("plugins")),
+					identifiers((JSONObject) parsed.get("selection")), layers));
+		} catch(IOException | ParseException | ClassCastException | NullPointerException | IllegalArgumentException e) {
+			// A broken lockfile only costs a full resolution
+			Logger.getAnonymousLogger().log(Level.WARNING,
+					"Discarding unreadable lockfile " + file.getPath(), e);
+			return Optional.empty();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public void write(Plan plan) {
+		JSONArray fingerprints = new JSONArray();
+		fingerprints.addAll(plan.fingerprints());
+
+		JSONArray layers = new JSONArray();
+		plan.layers().forEach(l -> {
+			JSONArray layer = new JSONArray();
+			layer.addAll(l);
+			layers.add(layer);
+		});
+
+		JSONObject root = new JSONObject();
+		root.put("format", FORMAT);
+		root.put("fingerprints", fingerprints);
+		root.put("plugins", serialize(plan.plugins()));
+		root.put("selection", serialize(plan.selection()));
+		root.put("layers", layers);
+
+		// Written aside and renamed over the old one, a crash can't leave a half written lockfile
+		Path target = file.toPath();
+		Path temp = null;
+		try {
+			temp = Files.createTempFile(target.toAbsolutePath().getParent(), file.getName(), ".tmp");
+			Files.writeString(temp, root.toJSONString(), StandardCharsets.UTF_8);
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch(IOException e) {
+			Logger.getAnonymousLogger().log(Level.WARNING,
+					"Could not write lockfile " + file.getPath(), e);
+		} finally {
+			if(temp != null) try {
+				Files.deleteIfExists(temp);
+			} catch(IOException _) {}
+		}
+	}
+
+	public void delete() {
+		try {
+			Files.deleteIfExists(file.toPath());
+		} catch(IOException e) {
+			Logger.getAnonymousLogger().log(Level.WARNING,
+					"Could not delete lockfile " + file.getPath(), e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static JSONObject serialize(Map<String, PluginIdentifier> ids) {
+		JSONObject serialized = new JSONObject();
+		ids.forEach((name, id) -> serialized.put(name, id.version().toString()));
+		return serialized;
+	}
+
+	private static Map<String, PluginIdentifier> identifiers(JSONObject serialized) {
+		Map<String, PluginIdentifier> ids = new TreeMap<>();
+		((Map<?, ?>) serialized).forEach((k, v) -> ids.put((String) k,
+				new PluginIdentifier((String) k, Version.parseVersion((String) v))));
+		return ids;
+	}
+
+	// Plugins are the ones that got loaded, the selection is every version the graph had picked.
+	// Layers are in order and hold every plugin name the graph knew of
+	public record Plan(List<String> fingerprints, Map<String, PluginIdentifier> plugins,
+					   Map<String, PluginIdentifier> selection, List<List<String>> layers) {
+		public boolean matches(List<String> fingerprints) {
+			return fingerprints().equals(fingerprints);
+		}
+	}
+}
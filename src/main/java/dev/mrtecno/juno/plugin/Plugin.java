@@ -4,17 +4,22 @@ import dev.mrtecno.juno.plugin.identifier.PluginIdentifier;
 import dev.mrtecno.juno.plugin.identifier.PluginWildcard;
 import dev.mrtecno.juno.plugin.identifier.Version;
 import dev.mrtecno.juno.service.Service;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
 import java.util.Arrays;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Getter
 @RequiredArgsConstructor
 public abstract class Plugin implements Service {
 	private final PluginManifest manifest;
-	private PluginManager manager;
+	private volatile PluginManager manager;
+
+	@Getter(AccessLevel.NONE)
+	private final AtomicReference<PluginState> state = new AtomicReference<>(PluginState.LOADED);
 
 	public Plugin(PluginLoader loader) {
 		this.manifest = parseManifest(loader, getClass()).orElseThrow(
@@ -36,6 +41,15 @@ public abstract class Plugin implements Service {
 		this.manager = null;
 	}
 
+	public PluginState state() {
+		return state.get();
+	}
+
+	// Lifecycle changes only go through if nobody else moved the plugin in the meantime
+	boolean transition(PluginState from, PluginState to) {
+		return state.compareAndSet(from, to);
+	}
+
 	public boolean linkedWith(PluginManager manager) {
 		return this.manager == manager;
 	}
@@ -59,6 +73,7 @@ public abstract class Plugin implements Service {
 	void unload0() {
 		unlink();
 		manifest().loader().unload(this);
+		state.set(PluginState.UNLOADED);
 	}
 
 	public static Optional<Manifest> parseClass(Class<?> clazz) {
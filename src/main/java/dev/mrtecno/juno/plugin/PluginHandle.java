@@ -0,0 +1,37 @@
+package dev.mrtecno.juno.plugin;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Optional;
+
+// Stands in for a plugin that may not have been instantiated yet
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PACKAGE)
+public class PluginHandle {
+	private final PluginManager manager;
+	private final String name;
+
+	public boolean active() {
+		return peek().filter(manager::isEnabled).isPresent();
+	}
+
+	// The plugin if it's already there, without bringing it up
+	public Optional<Plugin> peek() {
+		return manager.loaded(name);
+	}
+
+	// Loads and enables it, along with everything it depends on, the first time it's asked for
+	public Plugin get() {
+		return manager.activate(name);
+	}
+
+	@SuppressWarnings("unchecked")
+	public <P extends Plugin> P get(Class<P> clazz) {
+		Plugin pl = get();
+		if(!clazz.isInstance(pl))
+			throw new IllegalArgumentException("Plugin " + name + " is not a " + clazz.getName());
+		return (P) pl;
+	}
+}
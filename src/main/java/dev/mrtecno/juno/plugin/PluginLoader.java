@@ -4,6 +4,7 @@ import dev.mrtecno.juno.plugin.identifier.NamedIdentifier;
 import dev.mrtecno.juno.plugin.identifier.PluginWildcard;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface PluginLoader {
@@ -19,5 +20,21 @@ public interface PluginLoader {
 
 	Plugin load(PluginManifest manifest);
 
+	// Dependencies are the manifests of the plugins that were loaded for it
+	default Plugin load(PluginManifest manifest, List<PluginManifest> dependencies) {
+		return load(manifest);
+	}
+
+	// The class loader the plugin was loaded with, empty if its classes come from the parent
+	default Optional<ClassLoader> classLoader(PluginManifest manifest) {
+		return Optional.empty();
+	}
+
 	void unload(Plugin pl);
+
+	// Changes whenever what the loader offers could have changed. Loaders that
+	// can't tell never match a lockfile, so everything is resolved again
+	default Optional<String> fingerprint() {
+		return Optional.empty();
+	}
 }
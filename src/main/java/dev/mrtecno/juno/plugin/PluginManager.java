@@ -1,15 +1,29 @@
 package dev.mrtecno.juno.plugin;
 
+import dev.mrtecno.juno.events.DiscoveryEvent;
+import dev.mrtecno.juno.events.LifecycleEvent;
+import dev.mrtecno.juno.plugin.graph.GraphExecutor;
+import dev.mrtecno.juno.plugin.graph.GraphSnapshot;
 import dev.mrtecno.juno.plugin.graph.PluginGraph;
+import dev.mrtecno.juno.plugin.graph.PluginGraph.PluginNode;
+import dev.mrtecno.juno.plugin.graph.TraversalException;
+import dev.mrtecno.juno.plugin.identifier.NamedIdentifier;
 import dev.mrtecno.juno.plugin.identifier.PluginIdentifier;
 import dev.mrtecno.juno.plugin.identifier.PluginWildcard;
 import dev.mrtecno.juno.plugin.identifier.Version;
+import dev.mrtecno.juno.plugin.identifier.VersionRange;
 import dev.mrtecno.juno.service.Service;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -19,14 +33,36 @@ import static dev.mrtecno.juno.util.Optionals.peek;
 @Getter
 @RequiredArgsConstructor
 public class PluginManager implements Service, PluginLoader {
-	private final Collection<PluginLoader> loaders = new ArrayList<>();
+	private final Collection<PluginLoader> loaders = new CopyOnWriteArrayList<>();
 
 	private final PluginGraph dependencyGraph = new PluginGraph();
+	@Getter(AccessLevel.NONE)
+	private final Map<String, NavigableMap<Version, PluginManifest>> catalog = new ConcurrentHashMap<>();
 	private final PluginIndex plugins = new PluginIndex();
-	private final Set<Plugin> enabled = new HashSet<>();
+	private final Set<Plugin> enabled = ConcurrentHashMap.newKeySet();
+
+	// Lifecycle operations only lock the plugins they touch, independent subtrees run side by side
+	@Getter(AccessLevel.NONE)
+	private final LifecycleLocks locks = new LifecycleLocks();
 
 	private final boolean recursiveLookup;
 
+	@Setter
+	private GraphExecutor executor = new GraphExecutor(Runtime.getRuntime().availableProcessors());
+
+	// Bulk loads start from the last resolution stored here while no loader has changed
+	@Setter
+	private Lockfile lockfile;
+
+	// Bulk loads only discover and resolve, plugins are instantiated on first use through
+	// get, a handle, a service lookup or a dependent coming up
+	@Setter
+	private volatile boolean lazy;
+
+	// Bulk loads instantiate plugins on the executor, each one as soon as its dependencies are registered
+	@Setter
+	private volatile boolean parallelLoad;
+
 	public PluginManager(boolean recursiveLookup, PluginLoader... loaders) {
 		this(recursiveLookup);
 		for(PluginLoader loader : loaders) registerLoader(loader);
@@ -49,27 +85,14 @@ public class PluginManager implements Service, PluginLoader {
 		initialize(getClass().getClassLoader());
 	}
 
-	public Map<String, SortedMap<Version, PluginManifest>> discoveredPlugins() {
-		return dependencyGraph().pluginNames().entrySet()
-				.stream().filter(e -> !e.getValue().versions().isEmpty())
-				.collect(Collectors.toMap(
-						Map.Entry::getKey,
-						e -> e.getValue().versions()));
-	}
-
 	@Override
 	public Collection<PluginManifest> availablePlugins() {
-		return discoveredPlugins().values().stream()
+		return catalog.values().stream()
 				.flatMap(m -> m.values().stream()).toList();
 	}
 
 	public Optional<PluginManifest> lookup(PluginWildcard id) {
-		if(discoveredPlugins().containsKey(id.name()))
-			if(id instanceof PluginIdentifier identifier)
-				return Optional.ofNullable(
-						knownVersions(id.name()).get(identifier.version()));
-			else return knownVersions(id.name()).reversed()
-					.values().stream().filter(id).findFirst();
+		if(isKnown(id.name())) return known(id);
 
 		return loaders().stream()
 				.map(loader -> loader.lookup(id))
@@ -79,6 +102,16 @@ public class PluginManager implements Service, PluginLoader {
 				}));
 	}
 
+	private Optional<PluginManifest> known(PluginWildcard id) {
+		NavigableMap<Version, PluginManifest> versions = knownVersions(id.name());
+
+		return switch(id) {
+			case PluginIdentifier identifier -> Optional.ofNullable(versions.get(identifier.version()));
+			case NamedIdentifier _ -> Optional.ofNullable(versions.lastEntry()).map(Map.Entry::getValue);
+			case VersionRange range -> Optional.ofNullable(range.subMap(versions).lastEntry()).map(Map.Entry::getValue);
+		};
+	}
+
 	public Collection<PluginManifest> lookupDependencies(PluginManifest manifest) {
 		return Arrays.stream(manifest.dependencies()).map(d ->
 			lookup(d).orElseThrow(() -> new IllegalArgumentException(
@@ -90,35 +123,85 @@ public class PluginManager implements Service, PluginLoader {
 		return Optional.ofNullable(knownVersions(id.name()).get(id.version()));
 	}
 
-	public SortedMap<Version, PluginManifest> knownVersions(String name) {
-		return discoveredPlugins().computeIfAbsent(name, _ -> new TreeMap<>());
+	// Read only, the catalog only changes through discovery and unloading
+	public NavigableMap<Version, PluginManifest> knownVersions(String name) {
+		return Collections.unmodifiableNavigableMap(catalog.getOrDefault(name, Collections.emptyNavigableMap()));
+	}
+
+	// Names known when called, each with a live read only view of its versions
+	public Map<String, NavigableMap<Version, PluginManifest>> discoveredPlugins() {
+		Map<String, NavigableMap<Version, PluginManifest>> discovered = new HashMap<>();
+		catalog.forEach((name, versions) -> discovered.put(name, Collections.unmodifiableNavigableMap(versions)));
+		return Collections.unmodifiableMap(discovered);
 	}
 
 	public void discover(PluginManifest manifest) {
 		if(!loaders().contains(manifest.loader()))
 			throw new IllegalArgumentException("Can't discover a manifest from an unknown loader");
 
-		if(discoveredPlugins().containsKey(manifest.name())
-				&& knownManifest(manifest.id()).map(
+		if(knownManifest(manifest.id()).map(
 						m -> m.loader() != manifest.loader()).orElse(false))
 			throw new IllegalArgumentException("Manifest already discovered by loader "
 					+ manifest.loader().getClass().getName());
 
-		knownVersions(manifest.name()).put(manifest.version(), manifest);
+		DiscoveryEvent event = new DiscoveryEvent();
+		event.begin();
+
+		catalog(manifest);
 		dependencyGraph().add(manifest);
+
+		event.commit(manifest);
+	}
+
+	// The whole batch goes in the graph before versions are selected, once for all of it. Versions
+	// already known are skipped and the first manifest offering one wins, same as discovering one by one
+	public void discoverAll(Collection<PluginManifest> manifests) {
+		Map<PluginIdentifier, PluginManifest> fresh = new LinkedHashMap<>();
+		for(PluginManifest manifest : manifests) {
+			if(!loaders().contains(manifest.loader()))
+				throw new IllegalArgumentException("Can't discover a manifest from an unknown loader");
+			if(!isKnown(manifest)) fresh.putIfAbsent(manifest.id(), manifest);
+		}
+		if(fresh.isEmpty()) return;
+
+		locks.locked(fresh.values().stream().map(PluginManifest::name).distinct().toList(), () -> {
+			fresh.values().forEach(m -> {
+				DiscoveryEvent event = new DiscoveryEvent();
+				event.begin();
+				catalog(m);
+				event.commit(m);
+			});
+
+			dependencyGraph().addAll(fresh.values());
+		});
+	}
+
+	// Readers never see a name without versions, they'd take it for known and find nothing
+	private void catalog(PluginManifest manifest) {
+		catalog.compute(manifest.name(), (_, versions) -> {
+			if(versions == null) versions = new ConcurrentSkipListMap<>();
+			versions.put(manifest.version(), manifest);
+			return versions;
+		});
+	}
+
+	protected void forget(PluginManifest manifest) {
+		catalog.computeIfPresent(manifest.name(), (_, versions) -> {
+			versions.remove(manifest.version(), manifest);
+			return versions.isEmpty() ? null : versions;
+		});
 	}
 
 	public boolean isKnown(String name) {
-		return discoveredPlugins().containsKey(name);
+		return catalog.containsKey(name);
 	}
 
 	public boolean isKnown(PluginWildcard wildcard) {
-		return isKnown(wildcard.name()) && knownVersions(wildcard.name())
-				.values().stream().anyMatch(wildcard);
+		return known(wildcard).isPresent();
 	}
 
 	public boolean isKnown(PluginIdentifier id) {
-		return isKnown(id.name()) && knownVersions(id.name()).containsKey(id.version());
+		return knownVersions(id.name()).containsKey(id.version());
 	}
 
 	public boolean isKnown(PluginManifest manifest) {
@@ -130,21 +213,69 @@ public class PluginManager implements Service, PluginLoader {
 	}
 
 	public boolean isEnabled(PluginManifest manifest) {
-		return isEnabled(get(manifest).orElseThrow());
+		return isEnabled(loaded(manifest.name()).orElseThrow());
 	}
 
 	public boolean isEnabled(String name) {
-		return isEnabled(get(name).orElseThrow());
+		return isEnabled(loaded(name).orElseThrow());
 	}
 
 	public Optional<Plugin> get(PluginManifest id) {
 		return get(id.name());
 	}
 
+	// In lazy mode asking for a plugin that isn't there yet is what brings it up
 	public Optional<Plugin> get(String name) {
+		if(lazy() && !isLoaded(name) && isKnown(name)) return Optional.of(activate(name));
+		return loaded(name);
+	}
+
+	// Never activates anything, for the manager's own bookkeeping
+	Optional<Plugin> loaded(String name) {
 		return Optional.ofNullable(plugins.get(name));
 	}
 
+	private Optional<Plugin> loaded(PluginManifest manifest) {
+		return loaded(manifest.name());
+	}
+
+	public Optional<PluginHandle> handle(String name) {
+		return isKnown(name) ? Optional.of(new PluginHandle(this, name)) : Optional.empty();
+	}
+
+	public Collection<PluginHandle> handles() {
+		return catalog.keySet().stream().map(n -> new PluginHandle(this, n)).toList();
+	}
+
+	// Loads the version the graph picked along with its dependency chain, then enables all of it
+	Plugin activate(String name) {
+		Plugin pl = loaded(name).orElseGet(() -> load(selected(name)));
+		if(!isEnabled(pl)) enable(pl);
+		return pl;
+	}
+
+	private PluginManifest selected(String name) {
+		Map.Entry<Version, PluginManifest> latest = knownVersions(name).lastEntry();
+		if(latest == null) throw new IllegalArgumentException("Plugin not known: " + name);
+
+		// Any version finds the node, the snapshot tells which one it settled on
+		GraphSnapshot<PluginManifest, PluginNode> graph = dependencyGraph().snapshot();
+		int id = graph.idOf(latest.getValue());
+		PluginManifest selected = id >= 0 ? graph.element(id) : null;
+		return selected != null ? selected : latest.getValue();
+	}
+
+	// Plugins asked for as services by their class, activating them if needed
+	public Optional<Plugin> service(Class<?> clazz) {
+		if(!Plugin.class.isAssignableFrom(clazz)) return Optional.empty();
+
+		Plugin loaded = plugins.get(clazz.asSubclass(Plugin.class));
+		if(loaded != null || !lazy()) return Optional.ofNullable(loaded);
+
+		return availablePlugins().stream().filter(m -> m.entrypoint().equals(clazz.getName()))
+				.map(PluginManifest::name).findFirst().map(this::activate);
+	}
+
 	public Collection<Plugin> plugins() {
 		return plugins.values();
 	}
@@ -176,19 +307,139 @@ public class PluginManager implements Service, PluginLoader {
 				"Plugin already linked to another manager: " + plugin.manifest().name());
 		plugin.link(this);
 
-		plugins.put(plugin);
+		// Plugins registered side by side can still race for the same name
+		if(!plugins.putIfAbsent(plugin)) {
+			plugin.unlink();
+			throw new IllegalArgumentException(
+				"Plugin already registered: " + plugin.manifest().name());
+		}
 
 		return plugin;
 	}
 
 	public Plugin load(PluginManifest manifest) {
-		if(!isKnown(manifest)) discover(manifest);
-		if(isLoaded(manifest)) return plugins.get(manifest.name());
+		return locks.shared("load:" + manifest.name(), () -> locks.locked(dependencyNames(manifest), () -> {
+			if(!isKnown(manifest)) discover(manifest);
+			if(isLoaded(manifest)) return plugins.get(manifest.name());
+
+			// Whatever got loaded for each dependency is what the plugin's classes link against
+			List<PluginManifest> dependencies = lookupDependencies(manifest).stream()
+					.map(d -> loaded(d.name()).orElseGet(() -> load(d)).manifest()).toList();
+
+			return instantiate(manifest, dependencies);
+		}));
+	}
+
+	// Discovers the whole batch, then loads the versions the graph settled on along with everything
+	// they depend on. One snapshot gives the order for all of them, dependencies always come first
+	public List<Plugin> loadAll(Collection<PluginManifest> manifests) {
+		discoverAll(manifests);
+
+		GraphSnapshot<PluginManifest, PluginNode> graph = dependencyGraph().snapshot();
+		int[] ids = manifests.stream().mapToInt(graph::idOf).filter(id -> id >= 0).toArray();
+		List<PluginNode> nodes = graph.closure(ids, false);
+
+		return locks.locked(names(nodes), () -> {
+			// Newest first, rolling back takes dependents down before what they depend on
+			Deque<Plugin> created = new ConcurrentLinkedDeque<>();
+			Consumer<PluginNode> load = node -> {
+				PluginManifest manifest = graph.element(node);
+				if(manifest == null) throw new IllegalArgumentException(
+						"No version of plugin " + node.name() + " can be loaded: " + node.versions().keySet());
+				if(isLoaded(manifest)) return;
+
+				// Anything the graph has no node for was never found, it can't have been loaded before this
+				List<PluginManifest> dependencies = Arrays.stream(manifest.dependencies()).map(d ->
+						loaded(d.name()).orElseThrow(() -> new IllegalArgumentException(
+								"Dependency for plugin " + manifest.name() + " not found: " + d)).manifest()).toList();
+				created.addFirst(instantiate(manifest, dependencies));
+			};
+
+			// Either the whole batch is loaded or none of it, the executor only returns once nothing is running
+			try {
+				if(parallelLoad()) executor().run(graph, nodes, load, false);
+				else nodes.forEach(load);
+			} catch(RuntimeException e) {
+				rollback(created);
+				throw e;
+			}
+
+			return manifests.stream().map(PluginManifest::name).distinct()
+					.map(this::loaded).flatMap(Optional::stream).toList();
+		});
+	}
+
+	private Plugin instantiate(PluginManifest manifest, List<PluginManifest> dependencies) {
+		return registerPlugin(LifecycleEvent.record("load", manifest.id(), () -> manifest.load(dependencies)));
+	}
+
+	// What a failed batch registered goes back to being only discovered
+	private void rollback(Collection<Plugin> created) {
+		for(Plugin pl : created) {
+			if(!pl.transition(PluginState.LOADED, PluginState.UNLOADING)) continue;
+
+			try {
+				LifecycleEvent.record("unload", pl.id(), pl::unload0);
+			} catch(Exception e) {
+				Logger.getAnonymousLogger().log(Level.SEVERE,
+						"Could not unload plugin " + pl.manifest().name() + " after a failed load", e);
+			}
+
+			pl.transition(PluginState.UNLOADING, PluginState.UNLOADED);
+			plugins.removeValue(pl);
+		}
+	}
 
-		lookupDependencies(manifest).stream()
-				.filter(Predicate.not(this::isLoaded)).forEach(this::load);
+	public void apply(LoaderChanges changes) {
+		if(!loaders().contains(changes.loader()))
+			throw new IllegalArgumentException("Can't apply changes from an unknown loader");
 
-		return registerPlugin(manifest.load());
+		// Like any other lifecycle operation, everything the changes can reach is locked up front
+		locks.locked(affectedNames(changes), () -> apply0(changes));
+	}
+
+	private void apply0(LoaderChanges changes) {
+		Set<PluginManifest> loaded = loadedManifests();
+		Set<String> wasEnabled = enabled().stream().map(p -> p.manifest().name())
+				.collect(Collectors.toSet());
+
+		changes.removed().forEach(m -> {
+			loaded(m).filter(p -> p.manifest() == m).ifPresent(this::unload);
+			dependencyGraph().remove(m);
+			forget(m);
+		});
+
+		// Dependents that were unloaded along the way get loaded again on top of the new jars
+		List<PluginManifest> reload = loaded.stream().filter(m -> !changes.removed().contains(m))
+				.filter(Predicate.not(this::isLoaded)).toList();
+
+		discoverAll(changes.added());
+		List<Plugin> loadedNow = new ArrayList<>();
+		for(PluginManifest m : changes.added()) loadedNow.add(load(m));
+		for(PluginManifest m : reload) loadedNow.add(load(m));
+
+		loadedNow.stream().filter(p -> wasEnabled.contains(p.manifest().name())
+				|| changes.added().contains(p.manifest())).forEach(this::enable);
+	}
+
+	// Removed plugins take their dependents down and those get loaded again, along with what they
+	// depend on. Added ones bring whatever they depend on
+	private Set<String> affectedNames(LoaderChanges changes) {
+		GraphSnapshot<PluginManifest, PluginNode> graph = dependencyGraph().snapshot();
+		Set<String> names = new LinkedHashSet<>();
+
+		for(PluginManifest removed : changes.removed()) {
+			names.add(removed.name());
+			int id = graph.idOf(removed);
+			if(id >= 0) for(PluginNode node : graph.closure(id, true)) {
+				names.add(node.name());
+				PluginManifest element = graph.element(node);
+				if(element != null) names.addAll(dependencyNames(element));
+			}
+		}
+
+		changes.added().forEach(m -> names.addAll(dependencyNames(m)));
+		return names;
 	}
 
 	@Override
@@ -196,13 +447,28 @@ public class PluginManager implements Service, PluginLoader {
 		if(!isLoaded(pl.manifest()))
 			throw new IllegalArgumentException("Plugin not loaded: " + pl.manifest().name());
 
-		dependencyGraph().traverseDependents(pl.manifest(), false, false)
-				.filter(this::isLoaded).map(this::get)
-				.forEach(p -> unload(p.orElseThrow()));
+		locks.shared("unload:" + pl.manifest().name(), () -> {
+			GraphSnapshot<PluginManifest, PluginNode> graph = dependencyGraph().snapshot();
+			int id = graphId(graph, pl);
+			locks.locked(names(graph.closure(id, true)), () -> unload0(pl, graph, graph.dependents(id, true)));
+		});
+	}
+
+	private void unload0(Plugin pl, GraphSnapshot<PluginManifest, PluginNode> graph, List<PluginNode> dependents) {
+		if(!plugins.containsValue(pl)) return; // Someone else unloaded it while we were waiting
+
+		PluginState from = pl.state();
+		if((from != PluginState.LOADED && from != PluginState.ENABLED) || !pl.transition(from, PluginState.UNLOADING))
+			throw new IllegalStateException("Plugin " + pl.manifest().name() + " is busy: " + from);
+
+		dependents.stream().skip(1).map(graph::element)
+				.filter(Objects::nonNull).filter(this::isLoaded).map(this::loaded)
+				.forEach(p -> p.ifPresent(this::unload)); // Unloading one can take the others with it
 
 		try {
-			pl.unload0();
+			LifecycleEvent.record("unload", pl.id(), pl::unload0);
 		} catch(UnsupportedOperationException e) {
+			pl.transition(PluginState.UNLOADING, from);
 			return; // Plugin does not support unloading
 		} catch (Exception e) {
 			// Can't abort unloading process if we want to
@@ -212,8 +478,18 @@ public class PluginManager implements Service, PluginLoader {
 					"Could not unload plugin " + pl.manifest().name(), e);
 		}
 
-		plugins.remove(pl.manifest().name());
-		dependencyGraph().remove(pl.manifest());
+		pl.transition(PluginState.UNLOADING, PluginState.UNLOADED);
+		enabled().remove(pl);
+		plugins.removeValue(pl);
+
+		// Plugins only discovered still point at it, it stays known until they're gone
+		dependencyGraph().write(() -> {
+			PluginNode node = dependencyGraph().pluginNames().get(pl.manifest().name());
+			if(node != null && !node.dependents().isEmpty()) return;
+
+			dependencyGraph().remove(pl.manifest());
+			forget(pl.manifest());
+		});
 
 		// TODO: Unload unused dependencies?
 		/* lookupDependencies(pl.manifest()).stream()
@@ -224,45 +500,278 @@ public class PluginManager implements Service, PluginLoader {
 		if(!isLoaded(pl.manifest()))
 			throw new IllegalArgumentException("Plugin not loaded: " + pl.manifest().name());
 
-		dependencyGraph().traverseDependencies(pl.manifest(), true)
-				.filter(this::isLoaded).filter(Predicate.not(this::isEnabled))
-				.map(this::get).map(Optional::orElseThrow).map(peek(enabled()::add))
-				.forEach(Plugin::enable);
+		locks.shared("enable:" + pl.manifest().name(), () -> {
+			GraphSnapshot<PluginManifest, PluginNode> graph = dependencyGraph().snapshot();
+			// The whole chain below it has to be up first, not just what it names directly
+			List<PluginNode> nodes = graph.closure(graphId(graph, pl), false);
+			locks.locked(names(nodes), () -> executor().run(graph, nodes,
+					n -> enableIfNeeded(graph.element(n)), false));
+		});
+	}
+
+	private void enableIfNeeded(PluginManifest manifest) {
+		if(manifest != null) loaded(manifest).filter(Predicate.not(this::isEnabled)).ifPresent(this::enable0);
+	}
+
+	// Readers work on one published version of the graph, never on one being changed
+	private static int graphId(GraphSnapshot<PluginManifest, PluginNode> graph, Plugin pl) {
+		int id = graph.idOf(pl.manifest());
+		// Only possible if it was unloaded since the caller checked
+		if(id < 0) throw new IllegalArgumentException("Plugin not loaded: " + pl.manifest().name());
+		return id;
+	}
+
+	private static List<String> names(List<PluginNode> nodes) {
+		return nodes.stream().map(PluginNode::name).toList();
+	}
+
+	// Everything a load can end up touching, so it's all locked at once before starting.
+	// Nothing is discovered yet, that would already change the graph under someone else
+	private Set<String> dependencyNames(PluginManifest manifest) {
+		Set<String> names = new LinkedHashSet<>(List.of(manifest.name()));
+		Deque<PluginManifest> queue = new ArrayDeque<>(List.of(manifest));
+		while(!queue.isEmpty())
+			// Named ones are locked even if they can't be found yet, someone may be discovering them
+			for(PluginWildcard dependency : queue.poll().dependencies())
+				if(names.add(dependency.name())) find(dependency).ifPresent(queue::add);
+
+		return names;
+	}
+
+	private Optional<PluginManifest> find(PluginWildcard id) {
+		if(isKnown(id.name())) return known(id);
+		return loaders().stream().map(loader -> loader.lookup(id)).flatMap(Optional::stream).findFirst();
+	}
+
+	private void enable0(Plugin pl) {
+		if(!pl.transition(PluginState.LOADED, PluginState.ENABLING)) return; // Already enabled or on its way
+
+		try {
+			LifecycleEvent.record("enable", pl.id(), pl::enable);
+		} catch(Throwable t) {
+			pl.transition(PluginState.ENABLING, PluginState.LOADED);
+			throw t;
+		}
+
+		// Only marked once enable returns, a failing plugin must not look enabled
+		enabled().add(pl);
+		pl.transition(PluginState.ENABLING, PluginState.ENABLED);
+	}
+
+	private void disable0(Plugin pl) {
+		if(!pl.transition(PluginState.ENABLED, PluginState.DISABLING)) return;
+
+		enabled().remove(pl);
+		try {
+			LifecycleEvent.record("disable", pl.id(), pl::disable);
+		} finally {
+			pl.transition(PluginState.DISABLING, PluginState.LOADED);
+		}
 	}
 
 	public void disable(Plugin pl) {
 		if(!isLoaded(pl.manifest()))
 			throw new IllegalArgumentException("Plugin not loaded: " + pl.manifest().name());
 
-		dependencyGraph().traverseDependents(pl.manifest(), true, true)
-				.filter(this::isLoaded).map(this::get)
-				.map(Optional::orElseThrow).map(peek(enabled()::remove))
-				.forEach(Plugin::disable);
+		locks.shared("disable:" + pl.manifest().name(), () -> {
+			GraphSnapshot<PluginManifest, PluginNode> graph = dependencyGraph().snapshot();
+			List<PluginNode> nodes = graph.closure(graphId(graph, pl), true);
+			locks.locked(names(nodes), () -> executor().run(graph, nodes,
+					n -> disableIfNeeded(graph.element(n)), true));
+		});
+	}
+
+	private void disableIfNeeded(PluginManifest manifest) {
+		if(manifest != null) loaded(manifest).ifPresent(this::disable0);
 	}
 
 	@Override
 	public void enable() {
-		dependencyGraph().traverse().map(PluginManifest::name)
-				.map(plugins::get).map(peek(enabled()::add)).forEachOrdered(Plugin::enable);
+		GraphSnapshot<PluginManifest, PluginNode> graph = dependencyGraph().snapshot();
+		locks.locked(names(graph.nodes()), () -> executor().run(graph, graph.nodes(),
+				n -> enableIfNeeded(graph.element(n)), false));
 	}
 
 	@Override
 	public void disable() {
-		dependencyGraph().traverse(true).map(PluginManifest::name)
-				.map(plugins::get).filter(enabled()::contains)
-				.map(peek(enabled()::remove)).forEachOrdered(Plugin::disable);
-		dependencyGraph().clear();
-		plugins.clear();
+		GraphSnapshot<PluginManifest, PluginNode> graph = dependencyGraph().snapshot();
+		locks.locked(names(graph.nodes()), () -> {
+			executor().run(graph, graph.nodes(), n -> disableIfNeeded(graph.element(n)), true);
+			dependencyGraph().clear();
+			catalog.clear();
+			plugins.clear();
+		});
 	}
 
 	@Override
 	public void load() {
-		loaders().stream().flatMap(loader
-				-> loader.availablePlugins().stream()).forEach(this::load);
+		Optional<List<String>> fingerprints = lockfile() != null ? fingerprints() : Optional.empty();
+		Optional<Lockfile.Plan> locked = fingerprints.flatMap(f -> lockfile().read().filter(p -> p.matches(f)));
+
+		if(locked.isEmpty() || !restore(locked.get())) {
+			List<PluginManifest> available = loaders().stream().flatMap(loader -> loader.availablePlugins().stream()).toList();
+			if(lazy()) discoverAll(available);
+			else loadAll(available);
+		}
+
+		// A lazy start has nothing loaded yet, the plan would tell the next eager one to load nothing
+		if(!lazy())
+			fingerprints.map(this::plan).filter(p -> !locked.equals(Optional.of(p))).ifPresent(p -> lockfile().write(p));
+	}
+
+	private Optional<List<String>> fingerprints() {
+		List<String> fingerprints = new ArrayList<>();
+		for(PluginLoader loader : loaders()) {
+			Optional<String> fingerprint = loader.fingerprint();
+			if(fingerprint.isEmpty()) return Optional.empty();
+			fingerprints.add(fingerprint.get());
+		}
+
+		return Optional.of(fingerprints);
+	}
+
+	// Every available manifest goes back in the graph as it was resolved last time, no version is
+	// selected and no layer computed again. Then only what was loaded before is loaded, in layer order
+	private boolean restore(Lockfile.Plan plan) {
+		if(!catalog.isEmpty()) return false; // Only on a fresh start
+
+		// The first loader offering a version wins, same as when loading one by one
+		Map<PluginIdentifier, PluginManifest> manifests = new LinkedHashMap<>();
+		loaders().forEach(loader -> loader.availablePlugins().forEach(m -> manifests.putIfAbsent(m.id(), m)));
+
+		Set<String> layered = plan.layers().stream().flatMap(List::stream).collect(Collectors.toSet());
+		if(!manifests.keySet().containsAll(plan.plugins().values())
+				|| !manifests.keySet().containsAll(plan.selection().values())
+				|| !layered.containsAll(plan.plugins().keySet())) return false;
+
+		Map<String, Version> selection = new HashMap<>();
+		plan.selection().forEach((name, id) -> selection.put(name, id.version()));
+
+		locks.locked(manifests.values().stream().map(PluginManifest::name).distinct().toList(), () -> {
+			manifests.values().forEach(this::catalog);
+			dependencyGraph().restore(manifests.values(), selection, plan.layers());
+		});
+
+		if(!lazy()) plan.layers().stream().flatMap(List::stream).map(plan.plugins()::get)
+				.filter(Objects::nonNull).map(manifests::get).forEach(this::load);
+		return true;
+	}
+
+	private Lockfile.Plan plan(List<String> fingerprints) {
+		Map<String, PluginIdentifier> plugins = new TreeMap<>();
+		plugins().forEach(p -> plugins.put(p.manifest().name(), p.id()));
+
+		GraphSnapshot<PluginManifest, PluginNode> graph = dependencyGraph().snapshot();
+		Map<String, PluginIdentifier> selection = new TreeMap<>();
+		List<List<String>> layers = new ArrayList<>();
+		for(int layer = 0; layer < graph.layerCount(); layer++) {
+			List<String> names = new ArrayList<>();
+			for(int id = graph.layerStart(layer); id < graph.layerEnd(layer); id++) {
+				names.add(graph.node(id).name());
+
+				PluginManifest selected = graph.element(id);
+				if(selected != null) selection.put(selected.name(), selected.id());
+			}
+
+			names.sort(null);
+			layers.add(names);
+		}
+
+		return new Lockfile.Plan(fingerprints, plugins, selection, layers);
+	}
+
+	// Same as the blocking calls, but on a thread of their own and as an operation of their own. The
+	// timeout bounds the whole call, cancelling or timing out interrupts whatever it's waiting on.
+	// Plugins that take longer than the executor's timeout fail alone, only their dependents are skipped
+	public CompletableFuture<Plugin> loadAsync(PluginManifest manifest) {
+		return loadAsync(manifest, null);
+	}
+
+	public CompletableFuture<Plugin> loadAsync(PluginManifest manifest, Duration timeout) {
+		return async(timeout, () -> load(manifest));
+	}
+
+	public CompletableFuture<Void> unloadAsync(Plugin pl) {
+		return unloadAsync(pl, null);
+	}
+
+	public CompletableFuture<Void> unloadAsync(Plugin pl, Duration timeout) {
+		return async(timeout, () -> unload(pl));
+	}
+
+	public CompletableFuture<Void> enableAsync(Plugin pl) {
+		return enableAsync(pl, null);
+	}
+
+	public CompletableFuture<Void> enableAsync(Plugin pl, Duration timeout) {
+		return async(timeout, () -> enable(pl));
+	}
+
+	public CompletableFuture<Void> disableAsync(Plugin pl) {
+		return disableAsync(pl, null);
+	}
+
+	public CompletableFuture<Void> disableAsync(Plugin pl, Duration timeout) {
+		return async(timeout, () -> disable(pl));
+	}
+
+	public CompletableFuture<Void> enableAsync() {
+		return enableAsync((Duration) null);
+	}
+
+	public CompletableFuture<Void> enableAsync(Duration timeout) {
+		return async(timeout, () -> enable());
+	}
+
+	public CompletableFuture<Void> disableAsync() {
+		return disableAsync((Duration) null);
+	}
+
+	public CompletableFuture<Void> disableAsync(Duration timeout) {
+		return async(timeout, () -> disable());
+	}
+
+	private CompletableFuture<Void> async(Duration timeout, Runnable action) {
+		return async(timeout, () -> {
+			action.run();
+			return null;
+		});
+	}
+
+	private <R> CompletableFuture<R> async(Duration timeout, Supplier<R> action) {
+		CompletableFuture<R> result = new CompletableFuture<>();
+
+		// Doesn't take part in the caller's operation, it may well be waiting on this while holding its locks
+		Thread thread = Thread.ofVirtual().name("juno-lifecycle").inheritInheritableThreadLocals(false).unstarted(() -> {
+			try {
+				result.complete(locks.interruptibly(action));
+			} catch(Throwable t) {
+				if(t instanceof TraversalException e) report(e);
+				result.completeExceptionally(t);
+			}
+		});
+
+		result.whenComplete((_, t) -> {
+			if(t instanceof CancellationException || t instanceof TimeoutException) thread.interrupt();
+		});
+
+		thread.start();
+		if(timeout != null) result.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+		return result;
+	}
+
+	private static void report(TraversalException e) {
+		e.failures().forEach((node, t) -> {
+			if(t instanceof TimeoutException) Logger.getAnonymousLogger().log(Level.WARNING,
+					"Plugin " + node + " timed out, skipped everything depending on it");
+		});
 	}
 
 	@Override
 	public void unload() {
-		plugins().forEach(this::unload);
+		// Dependents go away along with what they depend on, the view still lists them for a moment
+		plugins().forEach(p -> {
+			if(plugins.containsValue(p)) unload(p);
+		});
 	}
 }
@@ -6,6 +6,8 @@ import dev.mrtecno.juno.plugin.identifier.Version;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
 
+import java.util.List;
+
 @Builder
 public record PluginManifest(PluginLoader loader, String entrypoint,
 							 @EqualsAndHashCode.Include PluginIdentifier id, PluginWildcard[] dependencies) {
@@ -13,6 +15,10 @@ public record PluginManifest(PluginLoader loader, String entrypoint,
 		return loader.load(this);
 	}
 
+	public Plugin load(List<PluginManifest> dependencies) {
+		return loader.load(this, dependencies);
+	}
+
 	public String name() {
 		return id.name();
 	}
@@ -0,0 +1,10 @@
+package dev.mrtecno.juno.plugin;
+
+public enum PluginState {
+	LOADED,
+	ENABLING,
+	ENABLED,
+	DISABLING,
+	UNLOADING,
+	UNLOADED
+}
@@ -1,16 +1,57 @@
 package dev.mrtecno.juno.plugin.graph;
 
+import dev.mrtecno.juno.events.LayeringEvent;
+
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public abstract class DependencyGraph<T, N extends DependencyGraph.Node<T>> {
 	private final Map<T, N> nodes = new ConcurrentHashMap<>();
+	// A node can be keyed by several elements, this has each of them once
+	private final Set<N> members = ConcurrentHashMap.newKeySet();
+
+	// Edges between nodes of the graph, counted at both ends as they come and go. Nodes only
+	// pointing at something that isn't in the graph yet count as leaves, like in snapshots
+	private final Map<N, Integer> dependentCounts = new ConcurrentHashMap<>();
+	private final Map<N, Integer> dependencyCounts = new ConcurrentHashMap<>();
+
+	// Nodes nothing depends on and nodes depending on nothing
+	private final Set<N> roots = ConcurrentHashMap.newKeySet();
+	private final Set<N> leaves = ConcurrentHashMap.newKeySet();
+
+	// Layer of every node computed so far, dropped for a node and its dependents when its edges change
+	private final Map<N, Integer> layerIndex = new ConcurrentHashMap<>();
+
+	// Writers are serialized, readers only ever look at a snapshot taken between writes
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private final AtomicLong version = new AtomicLong();
+	private volatile long completed;
+	private volatile GraphSnapshot<T, N> snapshot;
+
+	public void write(Runnable action) {
+		write(() -> {
+			action.run();
+			return null;
+		});
+	}
 
-	private final Set<N> inodes = new HashSet<>();
-	private final Set<N> onodes = new HashSet<>();
+	public <R> R write(Supplier<R> action) {
+		writeLock.lock();
+		try {
+			version.incrementAndGet();
+			return action.get();
+		} finally {
+			// Only the outermost write is a whole change readers can be shown
+			if(writeLock.getHoldCount() == 1) completed = version.get();
+			writeLock.unlock();
+		}
+	}
 
 	@SafeVarargs
 	public final void add(T element, T... dependencies) {
@@ -18,115 +59,256 @@ public abstract class DependencyGraph<T, N extends DependencyGraph.Node<T>> {
 	}
 
 	public void add(T element, List<T> dependencies) {
-		addNodes(element, dependencies.stream()
-				.map(this::node).collect(Collectors.toList()));
+		write(() -> {
+			addNodes(element, dependencies.stream()
+					.map(this::node).collect(Collectors.toList()));
+		});
 	}
 
 	protected N addNodes(T element, List<N> dependencies) {
 		N node = node(element);
+		invalidate(node);
 
-		node.dependencies().addAll(dependencies);
-		dependencies.forEach(d -> d.dependents().add(node));
-
-		if(!node.dependencies().isEmpty()) {
-			onodes.add(node);
-			inodes.addAll(node.dependencies());
+		for(N dependency : dependencies) {
+			if(node.dependencies().add(dependency)) link(node, dependency, 1);
+			dependency.dependents().add(node);
 		}
 
 		return node;
 	}
 
 	public void addDependency(T element, T dependency) {
-		addDependency(element, node(dependency));
+		write(() -> addDependency(element, node(dependency)));
 	}
 
 	protected void addDependency(T element, N dependency) {
-		N node = node(element);
-
-		onodes.add(node);
-		inodes.add(dependency);
+		write(() -> {
+			N node = node(element);
+			invalidate(node);
 
-		node.dependencies().add(dependency);
-		dependency.dependents().add(node);
+			if(node.dependencies().add(dependency)) link(node, dependency, 1);
+			dependency.dependents().add(node);
+		});
 	}
 
+	// Counts every edge again, only needed when they were changed behind the graph's back
 	public void updateRoots() {
-		onodes.clear();
-		inodes.clear();
-
-		uniqueNodes().forEach(n -> {
-			if(!n.dependencies().isEmpty()) inodes.add(n);
-			else onodes.add(n);
+		write(() -> {
+			dependentCounts.clear();
+			dependencyCounts.clear();
+			roots.clear();
+			leaves.clear();
+
+			members.forEach(this::refresh);
+			members.forEach(n -> n.<N>dependencies().forEach(d -> link(n, d, 1)));
 		});
 	}
 
-	public Set<N> roots() {
-		Set<N> roots = new HashSet<>(onodes);
-		roots.removeAll(inodes);
+	// For nodes whose edges follow their own state, with the dependencies they had before it changed
+	protected void rewire(N node, Collection<N> before) {
+		before.forEach(d -> link(node, d, -1));
+		node.<N>dependencies().forEach(d -> link(node, d, 1));
+	}
+
+	private void link(N node, N dependency, int delta) {
+		if(!members.contains(node) || !members.contains(dependency)) return;
 
+		dependencyCounts.merge(node, delta, Integer::sum);
+		dependentCounts.merge(dependency, delta, Integer::sum);
+		refresh(node);
+		refresh(dependency);
+	}
+
+	// Edges to and from a node only count while it's in the graph
+	private void join(N node) {
+		if(!members.add(node)) return;
+
+		refresh(node);
+		node.<N>dependencies().forEach(d -> link(node, d, 1));
+		node.<N>dependents().stream().filter(d -> d.dependencies().contains(node)).forEach(d -> link(d, node, 1));
+	}
+
+	private void leave(N node) {
+		if(!members.contains(node)) return;
+
+		node.<N>dependencies().forEach(d -> link(node, d, -1));
+		node.<N>dependents().stream().filter(d -> d.dependencies().contains(node)).forEach(d -> link(d, node, -1));
+
+		members.remove(node);
+		dependentCounts.remove(node);
+		dependencyCounts.remove(node);
+		refresh(node);
+	}
+
+	private void refresh(N node) {
+		if(!members.contains(node)) {
+			roots.remove(node);
+			leaves.remove(node);
+			return;
+		}
+
+		if(dependentCounts.getOrDefault(node, 0) == 0) roots.add(node);
+		else roots.remove(node);
+
+		if(dependencyCounts.getOrDefault(node, 0) == 0) leaves.add(node);
+		else leaves.remove(node);
+	}
+
+	public Set<N> roots() {
 		return Collections.unmodifiableSet(roots);
 	}
 
 	public Set<N> leaves() {
-		Set<N> leaves = new HashSet<>(inodes);
-		leaves.removeAll(onodes);
-
 		return Collections.unmodifiableSet(leaves);
 	}
 
 	protected void remove(N node) {
-		nodes.remove(node.element());
+		write(() -> {
+			invalidate(node);
+			nodes.remove(node.element());
+			leave(node);
 
-		node.dependencies().forEach(d -> d.dependents().remove(node));
-		node.dependents().forEach(d -> d.dependencies().remove(node));
+			node.dependencies().forEach(d -> d.dependents().remove(node));
+			node.dependents().forEach(d -> d.dependencies().remove(node));
+		});
+	}
 
-		inodes.remove(node);
-		onodes.remove(node);
+	// Out of the graph like a node never added, but still there for whatever points at it
+	protected void detach(N node) {
+		write(() -> {
+			invalidate(node);
+			leave(node);
+		});
 	}
 
 	public void clear() {
-		nodes.clear();
-		inodes.clear();
-		onodes.clear();
+		write(() -> {
+			nodes.clear();
+			members.clear();
+			dependentCounts.clear();
+			dependencyCounts.clear();
+			roots.clear();
+			leaves.clear();
+			layerIndex.clear();
+		});
+	}
+
+	protected void invalidate(N node) {
+		version.incrementAndGet();
+
+		// A node without a cached layer can't have dependents with one,
+		// they would have cached it while computing their own
+		if(layerIndex.remove(node) != null)
+			node.<N>dependents().forEach(this::invalidate);
 	}
 
 	public void removeRecursively(T element) {
-		removeRecursively(node(element));
+		write(() -> removeRecursively(node(element)));
 	}
 
 	protected void removeRecursively(N node) {
-		remove(node);
-		node.dependents().forEach(n
-				-> removeRecursively(n.element()));
+		write(() -> {
+			remove(node);
+			node.dependents().forEach(n
+					-> removeRecursively(n.element()));
+		});
 	}
 
 	public N remove(T element) {
-		N node = nodes.get(element);
-		if(node == null) return null;
+		return write(() -> {
+			N node = nodes.get(element);
+			if(node == null) return null;
 
-		remove(node);
-		return node;
+			remove(node);
+			return node;
+		});
 	}
 
+	// Only for writers, a node can be created or join the graph again
 	private N node(T element) {
-		return nodes.computeIfAbsent(element, _ -> makeNode(element, new ArrayList<>(), new ArrayList<>()));
+		N node = nodes.computeIfAbsent(element, _ -> makeNode(element, new LinkedHashSet<>(), new LinkedHashSet<>()));
+		join(node);
+		return node;
+	}
+
+	// Readers only look nodes up, one that isn't there yet is added like a writer would
+	private N find(T element) {
+		N node = nodes.get(element);
+		return node != null ? node : write(() -> node(element));
 	}
 
-	protected abstract N makeNode(T element, List<Node<T>> dependencies, List<Node<T>> dependents);
+	protected abstract N makeNode(T element, Set<Node<T>> dependencies, Set<Node<T>> dependents);
+
+	// For graphs rebuilt from a known state, the node is trusted to be wired up already.
+	// Roots and leaves are left to an updateRoots() once everything is in
+	protected void restore(T element, N node) {
+		nodes.put(element, node);
+		members.add(node);
+	}
+
+	protected void restoreLayer(N node, int layer) {
+		layerIndex.put(node, layer);
+	}
 
 	public Set<T> elements() {
 		return nodes.keySet();
 	}
 
 	public Set<N> uniqueNodes() {
-		return new HashSet<>(nodes.values());
+		return new HashSet<>(members);
+	}
+
+	public GraphSnapshot<T, N> snapshot() {
+		// A writer asking in the middle of its own changes gets them, in a snapshot nobody else is handed
+		if(writeLock.isHeldByCurrentThread()) return build();
+
+		// A snapshot that has every finished write in it is good enough, whatever is running now.
+		// Snapshots are built lazily, the first reader after a write builds it under the write lock
+		// and so waits for a write started since. Every other reader just takes the shared one
+		GraphSnapshot<T, N> current = snapshot;
+		if(current != null && current.version() >= completed) return current;
+
+		writeLock.lock();
+		try {
+			current = snapshot;
+			if(current == null || current.version() != version.get()) snapshot = current = build();
+			return current;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	private GraphSnapshot<T, N> build() {
+		return new GraphSnapshot<>(version.get(), nodes, uniqueNodes(), this::layer, this::snapshotElement);
+	}
+
+	// The element a node stood for when the snapshot was taken, null if it has none
+	protected T snapshotElement(N node) {
+		return node.element();
 	}
 
 	public int layer(N node) {
-		return layer0(node, new LinkedHashMap<>());
+		Integer layer = layerIndex.get(node);
+		if(layer != null) return layer;
+
+		// Readers don't hold the lock, what they worked out is only kept if no writer changed anything
+		// meanwhile. One that started invalidating after the check might have missed it, so check again
+		long start = version.get();
+		SequencedMap<N, Integer> visited = new LinkedHashMap<>();
+		int computed = layer0(node, visited);
+
+		if(version.get() == start) {
+			layerIndex.putAll(visited);
+			if(version.get() != start) visited.forEach(layerIndex::remove);
+		}
+
+		return computed;
 	}
 
 	private int layer0(N node, SequencedMap<N, Integer> visited) {
+		Integer cached = layerIndex.get(node);
+		if(cached != null) return cached;
+
 		if(visited.containsKey(node))
 			if(visited.get(node) == -1) { // Circular dependency
 				// Build detailed report of circular dependencies
@@ -171,10 +353,16 @@ public abstract class DependencyGraph<T, N extends DependencyGraph.Node<T>> {
 	}
 
 	public List<Set<N>> layers(Collection<N> nodes) {
+		LayeringEvent event = new LayeringEvent();
+		event.begin();
+
 		Map<Integer, Set<N>> layers = new HashMap<>();
 		nodes.forEach(n -> layers.computeIfAbsent(layer(n), _ -> new HashSet<>()).add(n));
-		return layers.keySet().stream().mapToInt(i -> i)
+		List<Set<N>> sorted = layers.keySet().stream().mapToInt(i -> i)
 				.sorted().mapToObj(layers::get).toList();
+
+		event.commit(nodes.size(), sorted.size());
+		return sorted;
 	}
 
 	public Stream<N> layeredNodeTraversal() {
@@ -213,6 +401,28 @@ public abstract class DependencyGraph<T, N extends DependencyGraph.Node<T>> {
 		return layeredNodeTraversal(reversed).peek(consumer).map(Node::element);
 	}
 
+	public void parallelTraversal(Consumer<N> consumer, GraphExecutor executor) {
+		parallelTraversal(consumer, executor, false);
+	}
+
+	public void parallelTraversal(Consumer<N> consumer, GraphExecutor executor, boolean reversed) {
+		parallelTraversal(uniqueNodes(), consumer, executor, reversed);
+	}
+
+	public void parallelTraversal(Collection<N> nodes, Consumer<N> consumer, GraphExecutor executor, boolean reversed) {
+		executor.run(layeredNodeTraversal(nodes, false).toList(), consumer, reversed);
+	}
+
+	public void parallelTraverseDependencies(T element, boolean self, Consumer<N> consumer, GraphExecutor executor) {
+		N node = find(element);
+		parallelTraversal(self ? node.dependenciesAndSelf() : node.dependencies(), consumer, executor, false);
+	}
+
+	public void parallelTraverseDependents(T element, boolean self, Consumer<N> consumer, GraphExecutor executor) {
+		N node = find(element);
+		parallelTraversal(self ? node.dependentsAndSelf() : node.dependents(), consumer, executor, true);
+	}
+
 	public Stream<T> traverseDependencies(T element, boolean self) {
 		return traverseDependencies(element, self, false);
 	}
@@ -222,11 +432,11 @@ public abstract class DependencyGraph<T, N extends DependencyGraph.Node<T>> {
 	}
 
 	public Stream<T> traverseDependencies(T element, boolean self, boolean reversed) {
-		return traverseDependencies(node(element), self, reversed).map(Node::element);
+		return traverseDependencies(find(element), self, reversed).map(Node::element);
 	}
 
 	public Stream<T> traverseDependents(T element, boolean self, boolean reversed) {
-		return traverseDependents(node(element), self, reversed).map(Node::element);
+		return traverseDependents(find(element), self, reversed).map(Node::element);
 	}
 
 	public interface Node<T> {
@@ -252,10 +462,21 @@ public abstract class DependencyGraph<T, N extends DependencyGraph.Node<T>> {
 
 	class FixedDependencyGraph<E> extends DependencyGraph<E, FixedDependencyGraph.FixedNode<E>> {
 		@Override
-		protected FixedNode<E> makeNode(E element, List<Node<E>> dependencies, List<Node<E>> dependents) {
+		protected FixedNode<E> makeNode(E element, Set<Node<E>> dependencies, Set<Node<E>> dependents) {
 			return new FixedNode<>(element, dependencies, dependents);
 		}
 
-		record FixedNode<T>(T element, List<Node<T>> dependencies, List<Node<T>> dependents) implements Node<T> {}
+		// Edges are kept in hashed sets, nodes have to compare by identity
+		record FixedNode<T>(T element, Set<Node<T>> dependencies, Set<Node<T>> dependents) implements Node<T> {
+			@Override
+			public boolean equals(Object o) {
+				return this == o;
+			}
+
+			@Override
+			public int hashCode() {
+				return System.identityHashCode(this);
+			}
+		}
 	}
 }
@@ -0,0 +1,231 @@
+package dev.mrtecno.juno.plugin.graph;
+
+import dev.mrtecno.juno.plugin.graph.DependencyGraph.Node;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+@Getter
+public class GraphExecutor {
+	private static final ThreadLocal<GraphExecutor> WORKER = new ThreadLocal<>();
+
+	private final int parallelism;
+	private final Semaphore permits;
+	private final Executor executor = task -> Thread.ofVirtual().name("juno-graph-worker").start(task);
+
+	// How long a single node may run, counted from when it starts. The worker is interrupted
+	// once it's over and only that node's dependents are skipped, null means no limit
+	@Setter
+	private volatile Duration timeout;
+
+	public GraphExecutor(int parallelism) {
+		this.parallelism = parallelism;
+		this.permits = parallelism > 0 ? new Semaphore(parallelism) : null;
+	}
+
+	public static GraphExecutor unbounded() {
+		return new GraphExecutor(0);
+	}
+
+	// Nodes must be ordered with dependencies first, only edges between them are followed
+	public <T, N extends Node<T>> Map<N, CompletableFuture<Void>> submit(List<N> nodes, Consumer<N> action,
+																		 boolean reversed, Map<N, Throwable> failures) {
+		return submit(nodes, Node::dependencies, action, reversed, failures);
+	}
+
+	private <T, N extends Node<T>> Map<N, CompletableFuture<Void>> submit(List<N> nodes,
+																		  Function<N, Collection<N>> dependencies,
+																		  Consumer<N> action, boolean reversed,
+																		  Map<N, Throwable> failures) {
+		Map<N, List<N>> predecessors = predecessors(nodes, dependencies, reversed);
+
+		// Every node is started as soon as its own predecessors are done, there's no barrier between layers
+		Duration timeout = this.timeout;
+		Map<N, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+		for(N n : reversed ? nodes.reversed() : nodes) {
+			CompletableFuture<Void> task = new CompletableFuture<>();
+			CompletableFuture.allOf(predecessors.get(n).stream()
+							.map(futures::get).toArray(CompletableFuture[]::new))
+					.whenComplete((_, t) -> {
+						if(t != null) task.completeExceptionally(new CancellationException("Dependency failed"));
+						else start(n, task, action, failures, timeout);
+					});
+
+			futures.put(n, task);
+		}
+
+		return futures;
+	}
+
+	private <T, N extends Node<T>> void start(N node, CompletableFuture<Void> task, Consumer<N> action,
+											  Map<N, Throwable> failures, Duration timeout) {
+		if(task.isDone()) return; // Cancelled before its turn came
+
+		AtomicReference<Thread> worker = new AtomicReference<>();
+		// The permit belongs to the task, a worker ignoring the interrupt must not keep it
+		AtomicBoolean held = new AtomicBoolean();
+		task.whenComplete((_, t) -> {
+			// Timed out or cancelled, whatever the plugin is stuck on gets interrupted
+			Thread running = worker.getAndSet(null);
+			if(running != null && t != null) running.interrupt();
+			release(held);
+		});
+
+		executor.execute(() -> {
+			if(task.isDone()) return;
+			worker.set(Thread.currentThread());
+			WORKER.set(this);
+
+			try {
+				if(!acquire(task, held)) return;
+
+				// Waiting for a permit doesn't count against the limit, only running does
+				if(timeout != null) task.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+				action.accept(node);
+				task.complete(null);
+			} catch(Throwable t) {
+				// Once it's timed out or cancelled, whatever the interrupt made it throw isn't the reason
+				if(!task.isDone()) failures.put(node, t);
+				task.completeExceptionally(t);
+			} finally {
+				WORKER.remove();
+				worker.set(null);
+				release(held);
+			}
+		});
+	}
+
+	// Gives up once the task is over, it was cancelled while waiting for its turn
+	private boolean acquire(CompletableFuture<Void> task, AtomicBoolean held) {
+		if(permits != null) while(true) try {
+			permits.acquire();
+			break;
+		} catch(InterruptedException e) {
+			if(task.isDone()) return false;
+		}
+
+		held.set(true);
+		// Completed between taking the permit and marking it, nobody else is giving it back
+		if(task.isDone()) {
+			release(held);
+			return false;
+		}
+
+		return true;
+	}
+
+	private void release(AtomicBoolean held) {
+		if(held.getAndSet(false) && permits != null) permits.release();
+	}
+
+	public <T, N extends Node<T>> void run(List<N> nodes, Consumer<N> action, boolean reversed) {
+		run(nodes, Node::dependencies, action, reversed);
+	}
+
+	// Follows the edges as they were when the snapshot was taken, whatever happens to the graph meanwhile
+	public <T, N extends Node<T>> void run(GraphSnapshot<T, N> snapshot, List<N> nodes,
+										   Consumer<N> action, boolean reversed) {
+		run(nodes, snapshot::dependencies, action, reversed);
+	}
+
+	private <T, N extends Node<T>> void run(List<N> nodes, Function<N, Collection<N>> dependencies,
+											Consumer<N> action, boolean reversed) {
+		if(WORKER.get() == this) {
+			// Nested traversal from inside a running action, waiting on other workers
+			// while holding a permit could starve the pool so it just runs inline
+			runInline(nodes, dependencies, action, reversed, new ConcurrentHashMap<>());
+			return;
+		}
+
+		CompletableFuture<Void> traversal = runAsync(nodes, dependencies, action, reversed);
+		try {
+			traversal.get();
+		} catch(InterruptedException e) {
+			// Whoever is waiting gave up, nothing else gets started
+			traversal.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Graph traversal interrupted");
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException r) throw r;
+			throw new CompletionException(e.getCause());
+		}
+	}
+
+	// Completes once every node has either run or been skipped, cancelling it stops the ones
+	// not started yet and interrupts those running
+	public <T, N extends Node<T>> CompletableFuture<Void> runAsync(GraphSnapshot<T, N> snapshot, List<N> nodes,
+																	Consumer<N> action, boolean reversed) {
+		return runAsync(nodes, snapshot::dependencies, action, reversed);
+	}
+
+	private <T, N extends Node<T>> CompletableFuture<Void> runAsync(List<N> nodes,
+																	Function<N, Collection<N>> dependencies,
+																	Consumer<N> action, boolean reversed) {
+		Map<N, Throwable> failures = new ConcurrentHashMap<>();
+		Map<N, CompletableFuture<Void>> futures = submit(nodes, dependencies, action, reversed, failures);
+
+		CompletableFuture<Void> traversal = new CompletableFuture<>();
+		traversal.whenComplete((_, t) -> {
+			if(t instanceof CancellationException || t instanceof TimeoutException)
+				futures.values().forEach(f -> f.cancel(true));
+		});
+
+		CompletableFuture.allOf(futures.values().toArray(CompletableFuture[]::new)).whenComplete((_, _) -> {
+			// Skipped nodes end up cancelled, only the one that ran out of time has failed with it
+			futures.forEach((n, f) -> {
+				if(f.state() == Future.State.FAILED && f.exceptionNow() instanceof TimeoutException t)
+					failures.put(n, t);
+			});
+
+			if(failures.isEmpty()) traversal.complete(null);
+			else traversal.completeExceptionally(new TraversalException(failures, futures.entrySet().stream()
+					.filter(e -> e.getValue().isCompletedExceptionally())
+					.map(Map.Entry::getKey).filter(n -> !failures.containsKey(n)).toList()));
+		});
+
+		return traversal;
+	}
+
+	private <T, N extends Node<T>> void runInline(List<N> nodes, Function<N, Collection<N>> dependencies,
+											   Consumer<N> action, boolean reversed, Map<N, Throwable> failures) {
+		Map<N, List<N>> predecessors = predecessors(nodes, dependencies, reversed);
+		Set<N> skipped = new LinkedHashSet<>();
+		for(N n : reversed ? nodes.reversed() : nodes) {
+			boolean blocked = predecessors.get(n).stream()
+					.anyMatch(p -> failures.containsKey(p) || skipped.contains(p));
+
+			if(blocked) skipped.add(n);
+			else try {
+				action.accept(n);
+			} catch(Throwable t) {
+				failures.put(n, t);
+			}
+		}
+
+		if(!failures.isEmpty())
+			throw new TraversalException(failures, List.copyOf(skipped));
+	}
+
+	// What has to be done before each node, its dependencies or, reversed, its dependents among the nodes
+	private static <T, N extends Node<T>> Map<N, List<N>> predecessors(List<N> nodes,
+																	   Function<N, Collection<N>> dependencies,
+																	   boolean reversed) {
+		Map<N, List<N>> predecessors = new HashMap<>();
+		nodes.forEach(n -> predecessors.put(n, new ArrayList<>()));
+
+		for(N n : nodes)
+			for(N d : dependencies.apply(n))
+				if(predecessors.containsKey(d))
+					if(reversed) predecessors.get(d).add(n);
+					else predecessors.get(n).add(d);
+
+		return predecessors;
+	}
+}
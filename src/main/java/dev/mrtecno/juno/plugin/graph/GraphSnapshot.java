@@ -0,0 +1,265 @@
+package dev.mrtecno.juno.plugin.graph;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+
+// Immutable view of a graph with dense int ids. The int accessors and forEach walks never allocate,
+// the ones handing out lists and closures do.
+// Ids are handed out layer by layer, so walking them in order is a valid topological order
+public final class GraphSnapshot<T, N extends DependencyGraph.Node<T>> {
+	private final long version;
+
+	private final List<N> nodes;
+	private final Map<N, Integer> ids = new IdentityHashMap<>();
+
+	// Nodes keep changing after the snapshot is taken, their elements are frozen here
+	private final Object[] elements;
+	private final Map<T, Integer> elementIds = new HashMap<>();
+
+	// Compressed sparse rows, the edges of node i are in [offsets[i], offsets[i + 1])
+	private final int[] dependencyOffsets, dependencies;
+	private final int[] dependentOffsets, dependents;
+
+	private final int[] layers;
+	private final int[] layerOffsets;
+
+	private final int[] roots, leaves;
+
+	GraphSnapshot(long version, Map<T, N> keys, Collection<N> graph,
+				  ToIntFunction<N> layer, Function<N, T> element) {
+		this.version = version;
+		int size = graph.size();
+
+		int[] layerOf = new int[size];
+		int depth = 0, i = 0;
+		for(N node : graph) depth = Math.max(depth, (layerOf[i++] = layer.applyAsInt(node)) + 1);
+
+		// Counting sort by layer
+		layerOffsets = new int[depth + 1];
+		for(int l : layerOf) layerOffsets[l + 1]++;
+		for(int l = 0; l < depth; l++) layerOffsets[l + 1] += layerOffsets[l];
+
+		int[] cursor = Arrays.copyOf(layerOffsets, depth);
+		Object[] sorted = new Object[size];
+		layers = new int[size];
+
+		i = 0;
+		for(N node : graph) {
+			int id = cursor[layerOf[i]]++;
+			sorted[id] = node;
+			layers[id] = layerOf[i++];
+		}
+
+		@SuppressWarnings("unchecked")
+		List<N> nodes = (List<N>) (List<?>) List.of(sorted);
+		this.nodes = nodes;
+		for(int id = 0; id < size; id++) ids.put(nodes.get(id), id);
+
+		elements = new Object[size];
+		for(int id = 0; id < size; id++) elements[id] = element.apply(nodes.get(id));
+		keys.forEach((key, node) -> {
+			int id = id(node);
+			if(id >= 0) elementIds.put(key, id);
+		});
+
+		int[][] rows = new int[size][];
+		int edges = 0;
+		for(int id = 0; id < size; id++) {
+			rows[id] = this.nodes.get(id).<N>dependencies().stream()
+					.mapToInt(this::id).filter(d -> d >= 0).sorted().distinct().toArray();
+			edges += rows[id].length;
+		}
+
+		dependencyOffsets = new int[size + 1];
+		dependencies = new int[edges];
+		dependentOffsets = new int[size + 1];
+		dependents = new int[edges];
+
+		for(int id = 0; id < size; id++) {
+			dependencyOffsets[id + 1] = dependencyOffsets[id] + rows[id].length;
+			System.arraycopy(rows[id], 0, dependencies, dependencyOffsets[id], rows[id].length);
+			for(int d : rows[id]) dependentOffsets[d + 1]++;
+		}
+
+		// Dependents are the dependency rows flipped, filling them in id order keeps every row sorted
+		for(int id = 0; id < size; id++) dependentOffsets[id + 1] += dependentOffsets[id];
+		int[] fill = Arrays.copyOf(dependentOffsets, size);
+		for(int id = 0; id < size; id++)
+			for(int d : rows[id]) dependents[fill[d]++] = id;
+
+		roots = IntStream.range(0, size).filter(id -> dependentCount(id) == 0).toArray();
+		leaves = IntStream.range(0, size).filter(id -> dependencyCount(id) == 0).toArray();
+	}
+
+	public long version() {
+		return version;
+	}
+
+	public int size() {
+		return nodes.size();
+	}
+
+	public N node(int id) {
+		return nodes.get(id);
+	}
+
+	@SuppressWarnings("unchecked")
+	public T element(int id) {
+		return (T) elements[id];
+	}
+
+	public T element(N node) {
+		int id = id(node);
+		return id >= 0 ? element(id) : null;
+	}
+
+	public int id(N node) {
+		Integer id = ids.get(node);
+		return id != null ? id : -1;
+	}
+
+	// Any element the graph was keyed with, not only the ones currently selected
+	public int idOf(T element) {
+		Integer id = elementIds.get(element);
+		return id != null ? id : -1;
+	}
+
+	public boolean contains(T element) {
+		return elementIds.containsKey(element);
+	}
+
+	// Nodes in topological order, dependencies always come before their dependents
+	public List<N> nodes() {
+		return nodes;
+	}
+
+	public int layer(int id) {
+		return layers[id];
+	}
+
+	public int layerCount() {
+		return layerOffsets.length - 1;
+	}
+
+	public int layerStart(int layer) {
+		return layerOffsets[layer];
+	}
+
+	public int layerEnd(int layer) {
+		return layerOffsets[layer + 1];
+	}
+
+	public int dependencyCount(int id) {
+		return dependencyOffsets[id + 1] - dependencyOffsets[id];
+	}
+
+	public int dependency(int id, int index) {
+		return dependencies[dependencyOffsets[id] + index];
+	}
+
+	public int dependentCount(int id) {
+		return dependentOffsets[id + 1] - dependentOffsets[id];
+	}
+
+	public int dependent(int id, int index) {
+		return dependents[dependentOffsets[id] + index];
+	}
+
+	// Direct neighbours in layered order, with the node itself as the last dependency or first dependent
+	public List<N> dependencies(int id, boolean self) {
+		return slice(dependencies, dependencyOffsets[id], dependencyOffsets[id + 1], self ? id : -1, false);
+	}
+
+	public List<N> dependents(int id, boolean self) {
+		return slice(dependents, dependentOffsets[id], dependentOffsets[id + 1], self ? id : -1, true);
+	}
+
+	public List<N> dependencies(N node) {
+		return dependencies(id(node), false);
+	}
+
+	// Everything the node depends on or that depends on it, however far, along with itself in layered order
+	public List<N> closure(int id, boolean dependents) {
+		return closure(new int[] { id }, dependents);
+	}
+
+	// Same for several nodes at once, each one reached is only walked once
+	public List<N> closure(int[] ids, boolean dependents) {
+		int[] edges = dependents ? this.dependents : dependencies;
+		int[] offsets = dependents ? dependentOffsets : dependencyOffsets;
+
+		BitSet seen = new BitSet(size());
+		int[] queue = new int[size()];
+		int head = 0, tail = 0;
+
+		for(int id : ids)
+			if(!seen.get(id)) {
+				seen.set(id);
+				queue[tail++] = id;
+			}
+
+		while(head < tail) {
+			int next = queue[head++];
+			for(int i = offsets[next]; i < offsets[next + 1]; i++)
+				if(!seen.get(edges[i])) {
+					seen.set(edges[i]);
+					queue[tail++] = edges[i];
+				}
+		}
+
+		return seen.stream().mapToObj(nodes::get).toList();
+	}
+
+	// Edges are sorted by id, so these walk them in layered order
+	public void forEachDependency(int id, boolean reversed, IntConsumer consumer) {
+		forEach(dependencies, dependencyOffsets[id], dependencyOffsets[id + 1], reversed, consumer);
+	}
+
+	public void forEachDependent(int id, boolean reversed, IntConsumer consumer) {
+		forEach(dependents, dependentOffsets[id], dependentOffsets[id + 1], reversed, consumer);
+	}
+
+	// Roots have no dependents, leaves have no dependencies
+	public int rootCount() {
+		return roots.length;
+	}
+
+	public int root(int index) {
+		return roots[index];
+	}
+
+	public int leafCount() {
+		return leaves.length;
+	}
+
+	public int leaf(int index) {
+		return leaves[index];
+	}
+
+	private List<N> slice(int[] edges, int from, int to, int self, boolean first) {
+		int offset = self >= 0 && first ? 1 : 0;
+		int size = to - from + (self >= 0 ? 1 : 0);
+
+		return new AbstractList<>() {
+			@Override
+			public N get(int index) {
+				Objects.checkIndex(index, size);
+				if(self >= 0 && index == (first ? 0 : size - 1)) return nodes.get(self);
+				return nodes.get(edges[from + index - offset]);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	private static void forEach(int[] edges, int from, int to, boolean reversed, IntConsumer consumer) {
+		if(reversed) for(int i = to - 1; i >= from; i--) consumer.accept(edges[i]);
+		else for(int i = from; i < to; i++) consumer.accept(edges[i]);
+	}
+}
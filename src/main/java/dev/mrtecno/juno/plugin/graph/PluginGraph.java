@@ -1,22 +1,37 @@
 package dev.mrtecno.juno.plugin.graph;
 
+import dev.mrtecno.juno.events.ResolutionEvent;
 import dev.mrtecno.juno.plugin.PluginManifest;
 import dev.mrtecno.juno.plugin.identifier.PluginWildcard;
 import dev.mrtecno.juno.plugin.identifier.Version;
+import dev.mrtecno.juno.plugin.identifier.VersionRange;
+import dev.mrtecno.juno.plugin.graph.PluginGraph.PluginNode.SelectionResult;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 
 @Getter
 public class PluginGraph extends DependencyGraph<PluginManifest, PluginGraph.PluginNode> {
-	private final Map<String, PluginNode> pluginNames = new HashMap<>();
+	// Written to only while writing, but looked up by readers without the lock
+	private final Map<String, PluginNode> pluginNames = new ConcurrentHashMap<>();
+
+	// Nodes whose versions, dependents or dependents' selections changed since they were last
+	// selected. Only ever touched while writing
+	@Getter(AccessLevel.NONE)
+	private final Set<PluginNode> dirty = new LinkedHashSet<>();
+
+	// Set while a batch goes in, nodes are only marked and all selected at once at the end
+	@Getter(AccessLevel.NONE)
+	private boolean deferred;
 
 	@Override
 	protected PluginNode makeNode(PluginManifest element,
-								  List<Node<PluginManifest>> dependencies,
-								  List<Node<PluginManifest>> dependents) {
+								  Set<Node<PluginManifest>> dependencies,
+								  Set<Node<PluginManifest>> dependents) {
 		PluginNode n = makeNode(element.name());
 		n.addVersion(element);
 		n.addDependency(element.version(), dependencies);
@@ -29,52 +44,236 @@ public class PluginGraph extends DependencyGraph<PluginManifest, PluginGraph.Plu
 		return pluginNames().computeIfAbsent(name, PluginNode::new);
 	}
 
+	// Every manifest goes in before a single reselection, instead of one per manifest.
+	// Gives back the nodes left without a compatible version
+	public Map<PluginNode, SelectionResult> addAll(Collection<PluginManifest> manifests) {
+		return write(() -> {
+			boolean outer = !deferred;
+			deferred = true;
+			try {
+				manifests.forEach(this::add);
+			} finally {
+				if(outer) deferred = false;
+			}
+
+			return outer ? reselectDirty() : Map.of();
+		});
+	}
+
 	public void reselectAll() {
-		layeredNodeTraversal()
-				.forEach(n -> n.reselect(false));
-		// Updating roots at the end all in once
-		updateRoots();
+		write(() -> {
+			dirty.addAll(pluginNames().values());
+			reselectDirty();
+		});
+	}
+
+	// Selects again only what changed, in dependency order. Dependents go first since they're the
+	// ones narrowing the range of their dependencies, which are marked in turn when a selection moves.
+	// Gives back the nodes left without a compatible version. Selections going around a cycle can
+	// undo each other forever, past a node visited once for every version in the graph it gives up
+	protected Map<PluginNode, SelectionResult> reselectDirty() {
+		return write(() -> {
+			Map<PluginNode, SelectionResult> failures = new LinkedHashMap<>();
+			if(dirty.isEmpty()) return failures;
+
+			// Layers are taken when a node is queued, one going stale only costs an extra pass
+			PriorityQueue<Pending> queue = new PriorityQueue<>(Comparator.comparingInt(Pending::layer).reversed());
+			Set<PluginNode> queued = new HashSet<>();
+			Set<PluginNode> visited = new LinkedHashSet<>();
+			Map<PluginNode, Integer> passes = new HashMap<>();
+			int limit = -1; // Only counted once some node comes back
+
+			while(true) {
+				for(PluginNode node : dirty)
+					if(pluginNames().get(node.name()) == node && queued.add(node))
+						queue.add(new Pending(node, depth(node)));
+				dirty.clear();
+
+				Pending next = queue.poll();
+				if(next == null) break;
+
+				queued.remove(next.node());
+				visited.add(next.node());
+				int pass = passes.merge(next.node(), 1, Integer::sum);
+				if(pass > 1 && limit < 0) limit = pluginNames().values().stream().mapToInt(n -> n.versions().size()).sum() + 1;
+				if(pass > 1 && pass > limit) {
+					dirty.clear();
+					PluginNode node = next.node();
+					throw new SelectionResult(node.name(), null, node.compatibilities()).toException(new IllegalStateException(
+							"Selection of " + node.name() + " never settles, its dependents depend on it in a circle"));
+				}
+				next.node().reselectLocal();
+			}
+
+			for(PluginNode node : visited)
+				if(!node.pinned() && node.selectedVersion == null && pluginNames().get(node.name()) == node)
+					failures.put(node, new SelectionResult(node.name(), null, node.compatibilities()));
+
+			return failures;
+		});
+	}
+
+	protected void markDirty(Node<PluginManifest> node) {
+		dirty.add((PluginNode) node);
+	}
+
+	private int depth(PluginNode node) {
+		try {
+			return layer(node);
+		} catch(IllegalStateException e) {
+			return 0; // Circular, any order still gets there
+		}
+	}
+
+	public Map<String, Version> resolveAll() {
+		return write(() -> {
+			Map<String, Version> selection = new VersionResolver(this).resolve().orElseThrow();
+
+			pluginNames().values().forEach(n -> {
+				Version version = selection.get(n.name());
+				if(version == null) n.deselect();
+				else n.select(version);
+			});
+
+			// The selection is whole, nothing is left to reselect greedily
+			dirty.clear();
+			return selection;
+		});
+	}
+
+	// Puts back a graph as it was resolved before, without selecting anything or computing layers.
+	// Nodes are left unpinned, so anything discovered later still goes through the usual selection
+	public void restore(Collection<PluginManifest> manifests, Map<String, Version> selection,
+						List<List<String>> layers) {
+		write(() -> {
+			for(PluginManifest manifest : manifests) {
+				PluginNode node = makeNode(manifest.name());
+				node.versions().put(manifest.version(), manifest);
+
+				Set<Node<PluginManifest>> dependencies = new LinkedHashSet<>();
+				for(PluginWildcard wildcard : manifest.dependencies()) {
+					PluginNode dependency = makeNode(wildcard.name());
+					dependencies.add(dependency);
+					dependency.dependents().add(node);
+				}
+
+				node.versionDependencies().put(manifest.version(), dependencies);
+				restore(manifest, node);
+			}
+
+			selection.forEach((name, version) -> {
+				PluginNode node = pluginNames().get(name);
+				if(node != null && node.versions().containsKey(version)) node.selectedVersion = version;
+			});
+
+			for(int layer = 0; layer < layers.size(); layer++)
+				for(String name : layers.get(layer)) {
+					PluginNode node = pluginNames().get(name);
+					if(node != null) restoreLayer(node, layer);
+				}
+
+			updateRoots();
+		});
 	}
 
 	@Override
 	public void remove(PluginNode node) {
-		if(!node.dependents().isEmpty())
-			throw new IllegalStateException("Cannot remove plugin with dependents");
+		write(() -> {
+			if(!node.dependents().isEmpty())
+				throw new IllegalStateException("Cannot remove plugin with dependents");
+
+			// Dependents are kept for every version, whatever it was depending on is freed up
+			node.versionDependencies().values().forEach(ds -> ds.forEach(d -> {
+				d.<Node<PluginManifest>>dependents().remove(node);
+				markDirty(d);
+			}));
+
+			super.remove(node);
+			// Every version of the plugin is keyed separately
+			elements().removeAll(node.versions().values());
+			pluginNames().remove(node.name());
+			dirty.remove(node);
+
+			reselectDirty();
+		});
+	}
+
+	@Override
+	public PluginNode remove(PluginManifest manifest) {
+		return write(() -> {
+			PluginNode node = pluginNames().get(manifest.name());
+			if(node == null || node.versions().get(manifest.version()) != manifest) return null;
+
+			if(node.versions().size() == 1 && node.dependents().isEmpty()) remove(node);
+			else if(node.versions().size() == 1) {
+				// Dependents that are only discovered still name it, it's left behind like a dependency never found
+				node.deselect();
+				node.versionDependencies().values().forEach(ds -> ds.forEach(d -> {
+					d.<Node<PluginManifest>>dependents().remove(node);
+					markDirty(d);
+				}));
+
+				elements().remove(manifest);
+				node.versions().clear();
+				node.versionDependencies().clear();
+				detach(node);
+				dirty.remove(node);
+				reselectDirty();
+			} else {
+				elements().remove(manifest);
+				node.removeVersion(manifest.version());
+				reselectDirty();
+			}
 
-		node.versions().values().forEach(super::remove);
-		pluginNames().remove(node.name());
+			return node;
+		});
 	}
 
 	@Override
 	public void clear() {
-		super.clear();
-		pluginNames().clear();
+		write(() -> {
+			super.clear();
+			pluginNames().clear();
+		});
 	}
 
 	@Override
 	public PluginNode addNodes(PluginManifest plugin, List<PluginNode> dependencies) {
-		dependencies.addAll(Arrays.stream(
-				plugin.dependencies()).map(PluginWildcard::name)
-				.map(this::makeNode).toList());
+		return write(() -> {
+			dependencies.addAll(Arrays.stream(
+					plugin.dependencies()).map(PluginWildcard::name)
+					.map(this::makeNode).toList());
+			// They all got a new dependent to satisfy, whatever gets selected here
+			dependencies.forEach(this::markDirty);
+
+			// Kinda of a hack to make sure the dep graph knows which version to add the deps to
+			return super.addNodes(plugin, dependencies).unpin();
+		});
+	}
 
-		// Kinda of a hack to make sure the dep graph knows which version to add the deps to
-		return super.addNodes(plugin, dependencies).unpin();
+	@Override
+	protected PluginManifest snapshotElement(PluginNode node) {
+		// element() would try to select a version, snapshots must not change the graph
+		return node.versionIfSelected().map(node.versions()::get).orElse(null);
 	}
 
+	private record Pending(PluginNode node, int layer) {}
+
 	@Getter
 	@RequiredArgsConstructor
 	public class PluginNode implements DependencyGraph.Node<PluginManifest> {
 		private final String name;
 		private final NavigableMap<Version, PluginManifest> versions = new TreeMap<>();
-		private final List<Node<PluginManifest>> dependents = new ArrayList<>();
-		private final Map<Version, List<Node<PluginManifest>>> versionDependencies = new HashMap<>();
+		// Nodes compare by identity, so these are identity sets
+		private final Set<Node<PluginManifest>> dependents = new LinkedHashSet<>();
+		private final Map<Version, Set<Node<PluginManifest>>> versionDependencies = new HashMap<>();
 
 		private Version selectedVersion;
 		private boolean pinned;
 
 		public PluginNode(PluginManifest plugin,
-						  List<Node<PluginManifest>> dependencies,
-						  List<Node<PluginManifest>> dependents) {
+						  Set<Node<PluginManifest>> dependencies,
+						  Collection<Node<PluginManifest>> dependents) {
 			this(plugin.name(), dependents);
 
 			addVersion(plugin);
@@ -83,29 +282,55 @@ public class PluginGraph extends DependencyGraph<PluginManifest, PluginGraph.Plu
 		}
 
 		public PluginNode(String name,
-						  List<Node<PluginManifest>> dependents) {
+						  Collection<Node<PluginManifest>> dependents) {
 			this(name);
 			dependents().addAll(dependents);
 		}
 
-		public void addDependency(Version version, List<Node<PluginManifest>> dependencies) {
-			versionDependencies().put(version, dependencies);
+		public void addDependency(Version version, Set<Node<PluginManifest>> dependencies) {
+			write(() -> {
+				Set<Node<PluginManifest>> before = versionDependencies().put(version, dependencies);
+				if(version.equals(selectedVersion)) {
+					invalidate(this);
+					rewire(this, before != null ? before.stream().map(PluginNode.class::cast).toList() : List.of());
+					dependencies.forEach(PluginGraph.this::markDirty);
+				}
+			});
 		}
 
-		public void addDependents(List<Node<PluginManifest>> dependents) {
-			dependents().addAll(dependents);
+		public void addDependents(Collection<Node<PluginManifest>> dependents) {
+			write(() -> {
+				dependents().addAll(dependents);
+				markDirty(this);
+			});
 		}
 
 		public void addVersion(PluginManifest plugin) {
 			if(!plugin.name().equals(name()))
 				throw new IllegalArgumentException(
 						"Different versions of plugins cannot have different names.");
-			versions().put(plugin.version(), plugin);
+			write(() -> {
+				versions().put(plugin.version(), plugin);
+				markDirty(this);
+			});
+		}
+
+		public void removeVersion(Version version) {
+			write(() -> {
+				if(version.equals(selectedVersion)) deselect();
+				versions().remove(version);
+				versionDependencies().remove(version);
+
+				markDirty(this);
+				if(!pinned()) reselectDirty();
+			});
 		}
 
 		public Version selectedVersion() {
-			if(selectedVersion == null)
-				reselectDetailed(true).orElseThrow();
+			if(selectedVersion == null) {
+				SelectionResult result = reselectDetailed();
+				if(selectedVersion == null) throw result.toException();
+			}
 			return selectedVersion;
 		}
 
@@ -114,14 +339,32 @@ public class PluginGraph extends DependencyGraph<PluginManifest, PluginGraph.Plu
 		}
 
 		public void deselect() {
-			selectedVersion = null;
+			write(() -> {
+				if(selectedVersion == null) return;
+
+				invalidate(this);
+				List<PluginNode> before = List.copyOf(dependencies());
+				before.forEach(PluginGraph.this::markDirty);
+				selectedVersion = null;
+				rewire(this, before);
+			});
 		}
 
 		public void select(Version version) {
-			if(!versions().containsKey(version))
-				throw new IllegalArgumentException(
-						"Version " + version + " of plugin " + name() + " is not available");
-			selectedVersion = version;
+			write(() -> {
+				if(!versions().containsKey(version))
+					throw new IllegalArgumentException(
+							"Version " + version + " of plugin " + name() + " is not available");
+				if(version.equals(selectedVersion)) return;
+
+				// Both the old and the new dependencies see their ranges change
+				invalidate(this);
+				List<PluginNode> before = List.copyOf(dependencies());
+				before.forEach(PluginGraph.this::markDirty);
+				selectedVersion = version;
+				dependencies().forEach(PluginGraph.this::markDirty);
+				rewire(this, before);
+			});
 		}
 
 		public PluginNode pin(Version version) {
@@ -135,53 +378,76 @@ public class PluginGraph extends DependencyGraph<PluginManifest, PluginGraph.Plu
 		}
 
 		public PluginNode unpin() {
-			pinned = false;
-			reselect();
+			write(() -> {
+				pinned = false;
+				if(deferred) markDirty(this);
+				else reselect();
+			});
 			return this;
 		}
 
 		public Optional<Version> reselect() {
-			return reselect(true);
+			return reselectDetailed().result();
+		}
+
+		// Its own failure comes first, then any other node the change left without a version
+		protected SelectionResult reselectDetailed() {
+			return write(() -> {
+				markDirty(this);
+				Map<PluginNode, SelectionResult> failures = reselectDirty();
+
+				SelectionResult own = failures.get(this);
+				if(own != null) return own;
+				return failures.values().stream().findFirst()
+						.orElseGet(() -> SelectionResult.trivial(name(), selectedVersion));
+			});
 		}
 
-		protected Optional<Version> reselect(boolean updateRoots) {
-			return reselectDetailed(updateRoots).result();
+		// Only this node, select() marks the dependencies when the selection moves
+		private void reselectLocal() {
+			if(pinned()) return;
+
+			ResolutionEvent event = new ResolutionEvent();
+			event.begin();
+
+			// Every selected dependent narrows the range, the highest version left in it wins
+			VersionRange allowed = VersionRange.any(name());
+			for(PluginManifest dependent : selectedDependents())
+				for(PluginWildcard wildcard : dependent.dependencies())
+					if(wildcard.name().equals(name())) {
+						allowed = allowed.intersect(wildcard.range());
+						break; // Only one wildcard matches per dependent
+					}
+
+			NavigableMap<Version, PluginManifest> candidates = allowed.subMap(versions());
+			Optional<Version> opt = candidates.isEmpty() ? Optional.empty() : Optional.of(candidates.lastKey());
+			opt.ifPresentOrElse(this::select, this::deselect);
+			event.commit(name(), opt.orElse(null), versions().size(), candidates.size(), dependents().size());
 		}
 
-		protected SelectionResult reselectDetailed(boolean updateRoots) {
-			if(pinned())
-				return SelectionResult.trivial(name(), versionIfSelected().orElse(null));
+		// Dependents without a version of their own don't ask anything of this one
+		private List<PluginManifest> selectedDependents() {
+			return dependents().stream().map(d -> ((PluginNode) d).versionIfSelected()
+					.map(((PluginNode) d).versions()::get).orElse(null))
+					.filter(Objects::nonNull).toList();
+		}
 
-			Optional<Version> opt;
+		private Map<Version, Map<PluginManifest, Boolean>> compatibilities() {
 			Map<Version, Map<PluginManifest, Boolean>> compatibilities = new HashMap<>();
-			(opt = versions().descendingKeySet().stream().filter(v -> {
-				Map<PluginManifest, Boolean> vercomp;
-				compatibilities.put(v, (vercomp = new HashMap<>()));
+			List<PluginManifest> dependents = selectedDependents();
+			versions().descendingKeySet().forEach(v -> {
+				Map<PluginManifest, Boolean> vercomp = new HashMap<>();
+				compatibilities.put(v, vercomp);
 
-				for(Node<PluginManifest> d : dependents())
-					for(PluginWildcard wildcard : d.element().dependencies())
+				for(PluginManifest d : dependents)
+					for(PluginWildcard wildcard : d.dependencies())
 						if(wildcard.name().equals(name())) {
-							boolean test = wildcard.test(versions().get(v));
-							vercomp.put(d.element(), test);
-
-							if (!test) return false;
-							else break; // Only one wildcard matches per dependent
+							vercomp.put(d, wildcard.test(versions().get(v)));
+							break;
 						}
-				return true;
-			// findFirst returns the highest version because descendingKeySet is ordered
-			}).findFirst()).ifPresentOrElse(this::select, this::deselect);
-
-			Optional<SelectionResult> result = Optional.empty();
-			if(opt.isPresent()) {
-				// Update any downstream dependencies to check for possible incompatible versions
-				result = this.<PluginNode>dependencies().stream()
-						.map(n -> n.reselectDetailed(false)).findFirst();
-			}
+			});
 
-			if(updateRoots)
-				PluginGraph.this.updateRoots();
-
-			return result.orElseGet(() -> new SelectionResult(name(), opt.orElse(null), compatibilities));
+			return compatibilities;
 		}
 
 		@Override
@@ -192,7 +458,7 @@ public class PluginGraph extends DependencyGraph<PluginManifest, PluginGraph.Plu
 		@Override
 		@SuppressWarnings("unchecked")
 		public <N extends Node<PluginManifest>> Collection<N> dependencies() {
-			return versionIfSelected().map(versionDependencies()::get).orElse(Collections.EMPTY_LIST);
+			return versionIfSelected().map(versionDependencies()::get).orElse(Collections.EMPTY_SET);
 		}
 
 		@Override
@@ -219,6 +485,10 @@ public class PluginGraph extends DependencyGraph<PluginManifest, PluginGraph.Plu
 				return new CompatibilityException(this);
 			}
 
+			CompatibilityException toException(Throwable cause) {
+				return new CompatibilityException(this, cause);
+			}
+
 			public String message() {
 				StringBuilder sb = new StringBuilder("No version of plugin ");
 				sb.append(name());
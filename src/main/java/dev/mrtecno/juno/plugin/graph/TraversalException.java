@@ -0,0 +1,41 @@
+package dev.mrtecno.juno.plugin.graph;
+
+import lombok.Getter;
+
+import java.io.Serial;
+import java.util.Collection;
+import java.util.Map;
+
+@Getter
+public class TraversalException extends IllegalStateException {
+	@Serial
+	private static final long serialVersionUID = 1L;
+
+	// Nodes aren't serializable, a deserialized exception only keeps its message and suppressed failures
+	private final transient Map<?, Throwable> failures;
+	private final transient Collection<?> skipped;
+
+	TraversalException(Map<?, Throwable> failures, Collection<?> skipped) {
+		super(message(failures, skipped));
+		this.failures = failures;
+		this.skipped = skipped;
+
+		failures.values().forEach(this::addSuppressed);
+	}
+
+	private static String message(Map<?, Throwable> failures, Collection<?> skipped) {
+		StringBuilder sb = new StringBuilder("Graph traversal failed on ");
+		sb.append(failures.size()).append(" nodes\n");
+		failures.forEach((k, v) -> sb.append("\t\t- ").append(k)
+				.append(": ").append(v).append("\n"));
+
+		if(!skipped.isEmpty()) {
+			sb.append("\tSkipped dependents: [");
+			skipped.forEach(n -> sb.append(n).append(", "));
+			sb.append("]\n");
+		}
+
+		sb.delete(sb.length() - 1, sb.length()); // Remove last newline
+		return sb.toString();
+	}
+}
@@ -0,0 +1,681 @@
+package dev.mrtecno.juno.plugin.graph;
+
+import dev.mrtecno.juno.plugin.PluginManifest;
+import dev.mrtecno.juno.plugin.graph.PluginGraph.PluginNode;
+import dev.mrtecno.juno.plugin.graph.PluginGraph.PluginNode.SelectionResult;
+import dev.mrtecno.juno.plugin.identifier.PluginWildcard;
+import dev.mrtecno.juno.plugin.identifier.Version;
+import dev.mrtecno.juno.plugin.identifier.VersionRange;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.*;
+
+/*
+ * Finds a version for every plugin of the graph so that every selected version
+ * accepts the versions selected for its dependencies, in the same spirit as PubGrub.
+ *
+ * Every plugin has a fixed set of candidate versions, so any set of versions is a bitset over
+ * them. Constraints are kept as incompatibilities, sets of "plugin in versions" terms that can't
+ * all hold at once.
+ *
+ * Dependencies aren't stored as incompatibilities though, every edge narrows either of its
+ * plugins in one go and only builds the incompatibility explaining it when it does.
+ *
+ * Plugins with the fewest versions left are decided first, picking the highest one, and every
+ * decision is propagated through the edges and the learned incompatibilities. On a conflict the
+ * incompatibilities involved are resolved into a new one, which is learned and tells how far
+ * back to jump.
+ */
+public class VersionResolver {
+	private static final int SATISFIED = -1, CONTRADICTED = -2, INCONCLUSIVE = -3;
+
+	private final String[] names;
+	private final PluginNode[] nodes;
+	private final Version[][] domains;
+
+	// requiredVars[var][version] lists the dependency variables and the range required on each
+	private final int[][][] requiredVars;
+	private final VersionRange[][][] requiredRanges;
+
+	// Variables with at least one version depending on the key variable, and the other way around
+	private final int[][] incoming, outgoing;
+	private final int[] order;
+
+	// Dependency edges by both of their ends, and learned incompatibilities by their watched terms
+	private final List<List<Requirement>> requirements;
+	private final List<List<Incompatibility>> watching;
+	private final List<Incompatibility> units = new ArrayList<>();
+	private final Map<VersionRange, BitSet> acceptedSets = new HashMap<>();
+	private final BitSet[] allowed;
+	private final boolean[] queued;
+
+	// Partial solution, every derivation and decision in the order they were made
+	private final List<Assignment> assignments = new ArrayList<>();
+	private final int[][] history;
+	private final int[] historySize;
+	private int level;
+
+	// The incompatibility being derived on a conflict, by variable
+	private final BitSet[] conflictTerms;
+	private final int[] satisfiers, positions, conflictVars;
+	private int conflictSize;
+
+	@Getter
+	private int learned;
+	private int failed = -1;
+
+	public VersionResolver(PluginGraph graph) {
+		List<PluginNode> variables = graph.pluginNames().values().stream()
+				.filter(n -> !n.versions().isEmpty())
+				.sorted(Comparator.comparing(PluginNode::name)).toList();
+
+		int size = variables.size();
+		Map<String, Integer> index = new HashMap<>();
+
+		names = new String[size];
+		nodes = new PluginNode[size];
+		domains = new Version[size][];
+
+		for(int i = 0; i < size; i++) {
+			PluginNode node = variables.get(i);
+			names[i] = node.name();
+			nodes[i] = node;
+			index.put(node.name(), i);
+
+			// Highest version first, so the first set bit is always the preferred one
+			domains[i] = node.pinned() && node.versionIfSelected().isPresent()
+					? new Version[] { node.versionIfSelected().get() }
+					: node.versions().descendingKeySet().toArray(Version[]::new);
+		}
+
+		requiredVars = new int[size][][];
+		requiredRanges = new VersionRange[size][][];
+		outgoing = new int[size][];
+		requirements = new ArrayList<>(size);
+		watching = new ArrayList<>(size);
+		allowed = new BitSet[size];
+		queued = new boolean[size];
+		history = new int[size][];
+		historySize = new int[size];
+		conflictTerms = new BitSet[size];
+		satisfiers = new int[size];
+		positions = new int[size];
+		conflictVars = new int[size];
+
+		List<Set<Integer>> dependents = new ArrayList<>();
+		for(int i = 0; i < size; i++) {
+			dependents.add(new LinkedHashSet<>());
+			requirements.add(new ArrayList<>());
+			watching.add(new ArrayList<>());
+			allowed[i] = full(i);
+			// Every assignment of a variable strictly shrinks it, plus one for the decision
+			history[i] = new int[domains[i].length + 1];
+		}
+
+		for(int i = 0; i < size; i++) {
+			int versions = domains[i].length;
+			requiredVars[i] = new int[versions][];
+			requiredRanges[i] = new VersionRange[versions][];
+
+			BitSet missing = new BitSet();
+			// Versions of this plugin grouped by dependency and by the range they require on it
+			Map<Integer, Map<VersionRange, BitSet>> required = new LinkedHashMap<>();
+
+			for(int v = 0; v < versions; v++) {
+				PluginWildcard[] dependencies = nodes[i].versions().get(domains[i][v]).dependencies();
+				requiredVars[i][v] = new int[dependencies.length];
+				requiredRanges[i][v] = new VersionRange[dependencies.length];
+
+				for(int d = 0; d < dependencies.length; d++) {
+					Integer dependency = index.get(dependencies[d].name());
+
+					// A dependency nobody provides rules this version out on its own
+					if(dependency == null) {
+						missing.set(v);
+						requiredVars[i][v][d] = -1;
+						continue;
+					}
+
+					requiredVars[i][v][d] = dependency;
+					requiredRanges[i][v][d] = dependencies[d].range();
+					dependents.get(dependency).add(i);
+
+					required.computeIfAbsent(dependency, _ -> new LinkedHashMap<>())
+							.computeIfAbsent(requiredRanges[i][v][d], _ -> new BitSet()).set(v);
+				}
+			}
+
+			if(!missing.isEmpty()) units.add(incompatibility(new int[] { i }, new BitSet[] { missing }));
+
+			outgoing[i] = required.keySet().stream().mapToInt(Integer::intValue).toArray();
+			for(Map.Entry<Integer, Map<VersionRange, BitSet>> entry : required.entrySet())
+				connect(i, entry.getKey(), entry.getValue());
+		}
+
+		incoming = dependents.stream().map(s -> s.stream().mapToInt(Integer::intValue).toArray())
+				.toArray(int[][]::new);
+		order = dependentsFirst(size);
+	}
+
+	public Resolution resolve() {
+		boolean solved = true;
+
+		// Constraints already down to a single term before anything is decided
+		for(Incompatibility unit : units) {
+			int term = undecided(unit);
+			if(term == CONTRADICTED) continue;
+
+			solved = term >= 0 ? settle(unit, term) : conflict(unit);
+			if(!solved) break;
+		}
+
+		// Ranges every version of a plugin agrees on hold before anything is decided too
+		if(solved) solved = propagate(order);
+
+		while(solved) {
+			int var = nextDecision();
+			if(var < 0) {
+				Map<String, Version> selection = new HashMap<>();
+				for(int i = 0; i < names.length; i++)
+					selection.put(names[i], domains[i][allowed[i].nextSetBit(0)]);
+				return new Resolution(selection, null);
+			}
+
+			level++;
+			BitSet decision = new BitSet();
+			decision.set(allowed[var].nextSetBit(0));
+			assign(var, decision, null);
+
+			solved = propagate(var);
+		}
+
+		return new Resolution(null, diagnose(failed));
+	}
+
+	private int nextDecision() {
+		// Plugins with the fewest versions left first, they're the likeliest to conflict
+		int best = -1, fewest = Integer.MAX_VALUE;
+		for(int var : order) {
+			int left = allowed[var].cardinality();
+			if(left > 1 && left < fewest) {
+				best = var;
+				fewest = left;
+			}
+		}
+
+		return best;
+	}
+
+	private boolean settle(Incompatibility incompatibility, int term) {
+		derive(incompatibility, term);
+		return propagate(incompatibility.vars[term]);
+	}
+
+	private boolean conflict(Incompatibility incompatibility) {
+		Incompatibility learned = resolveConflict(incompatibility);
+		return learned != null && settle(learned, learned.watches[0]);
+	}
+
+	// Unit propagation, returns false when a conflict can't be solved by backjumping
+	private boolean propagate(int... start) {
+		Deque<Integer> queue = new ArrayDeque<>();
+		for(int var : start) enqueue(queue, var);
+
+		while(!queue.isEmpty()) {
+			int var = queue.poll();
+			queued[var] = false;
+
+			Incompatibility conflict = propagateRequirements(queue, var);
+			if(conflict == null) conflict = propagateLearned(queue, var);
+			if(conflict == null) continue;
+
+			Incompatibility learned = resolveConflict(conflict);
+			if(learned == null) return false;
+
+			// Backjumping undid part of what was queued, start over from the learned one
+			queue.forEach(v -> queued[v] = false);
+			queue.clear();
+			derive(learned, learned.watches[0]);
+			enqueue(queue, learned.vars[learned.watches[0]]);
+		}
+
+		return true;
+	}
+
+	// Both return the incompatibility in conflict if there is one
+	private Incompatibility propagateRequirements(Deque<Integer> queue, int var) {
+		for(Requirement requirement : requirements.get(var)) {
+			// Narrowing the dependent narrows its dependency, and the other way around
+			boolean down = requirement.dependent() == var;
+			Incompatibility cause = down ? narrowDependency(requirement) : narrowDependent(requirement);
+			if(cause == null) continue;
+
+			int term = down ? 0 : 1;
+			if(satisfied(cause, term)) return cause;
+
+			derive(cause, term);
+			enqueue(queue, cause.vars[term]);
+		}
+
+		return null;
+	}
+
+	private Incompatibility propagateLearned(Deque<Integer> queue, int var) {
+		List<Incompatibility> watched = watching.get(var);
+
+		// Each incompatibility watches two terms that don't hold yet, it can only
+		// come down to a single one once both of them hold
+		for(int i = 0; i < watched.size(); ) {
+			Incompatibility incompatibility = watched.get(i);
+			int side = incompatibility.vars[incompatibility.watches[0]] == var ? 0 : 1;
+			int term = incompatibility.watches[side], other = incompatibility.watches[1 - side];
+
+			// Nothing to do while the other one can't hold, it was ruled out no later than this
+			if(!satisfied(incompatibility, term) || contradicted(incompatibility, other)) {
+				i++;
+				continue;
+			}
+
+			// Searching on from the old watch, the terms before it are likely to hold already
+			int replacement = -1, length = incompatibility.vars.length;
+			for(int k = 1; k < length && replacement < 0; k++) {
+				int t = (term + k) % length;
+				if(t != other && !satisfied(incompatibility, t)) replacement = t;
+			}
+
+			if(replacement >= 0) {
+				incompatibility.watches[side] = replacement;
+				watching.get(incompatibility.vars[replacement]).add(incompatibility);
+				watched.set(i, watched.getLast());
+				watched.removeLast();
+				continue;
+			}
+
+			if(satisfied(incompatibility, other)) return incompatibility;
+
+			derive(incompatibility, other);
+			enqueue(queue, incompatibility.vars[other]);
+			i++;
+		}
+
+		return null;
+	}
+
+	// Rules out the dependency versions no allowed version of the dependent accepts,
+	// returns null if there are none
+	private Incompatibility narrowDependency(Requirement requirement) {
+		BitSet versions = allowed[requirement.dependent()];
+		if(versions.intersects(requirement.unconstrained())) return null;
+
+		BitSet reachable = new BitSet();
+		for(int g = 0; g < requirement.groups().length; g++)
+			if(versions.intersects(requirement.groups()[g])) reachable.or(requirement.accepted()[g]);
+
+		if(within(allowed[requirement.dependency()], reachable)) return null;
+
+		// Blaming every version that accepts nothing more, not only the allowed ones
+		BitSet blamed = new BitSet();
+		for(int g = 0; g < requirement.groups().length; g++)
+			if(within(requirement.accepted()[g], reachable)) blamed.or(requirement.groups()[g]);
+
+		BitSet rejected = full(requirement.dependency());
+		rejected.andNot(reachable);
+		return incompatibility(new int[] { requirement.dependency(), requirement.dependent() },
+				new BitSet[] { rejected, blamed });
+	}
+
+	// Rules out the dependent versions accepting none of the allowed dependency versions,
+	// returns null if there are none
+	private Incompatibility narrowDependent(Requirement requirement) {
+		BitSet available = allowed[requirement.dependency()];
+		BitSet blocked = new BitSet(), wanted = new BitSet();
+
+		for(int g = 0; g < requirement.groups().length; g++)
+			if(!available.intersects(requirement.accepted()[g])) {
+				blocked.or(requirement.groups()[g]);
+				wanted.or(requirement.accepted()[g]);
+			}
+
+		if(!allowed[requirement.dependent()].intersects(blocked)) return null;
+
+		BitSet rejected = full(requirement.dependency());
+		rejected.andNot(wanted);
+		return incompatibility(new int[] { requirement.dependency(), requirement.dependent() },
+				new BitSet[] { rejected, blocked });
+	}
+
+	// A variable narrowed again while waiting is still only visited once
+	private void enqueue(Deque<Integer> queue, int var) {
+		if(!queued[var]) {
+			queued[var] = true;
+			queue.add(var);
+		}
+	}
+
+	private boolean satisfied(Incompatibility incompatibility, int term) {
+		return !allowed[incompatibility.vars[term]].intersects(incompatibility.excluded[term]);
+	}
+
+	private boolean contradicted(Incompatibility incompatibility, int term) {
+		return !allowed[incompatibility.vars[term]].intersects(incompatibility.sets[term]);
+	}
+
+	// The index of the only term that doesn't hold yet, or one of the constants above
+	private int undecided(Incompatibility incompatibility) {
+		int undecided = SATISFIED;
+
+		for(int t = 0; t < incompatibility.vars.length; t++) {
+			if(contradicted(incompatibility, t)) return CONTRADICTED;
+			if(satisfied(incompatibility, t)) continue;
+
+			if(undecided != SATISFIED) return INCONCLUSIVE;
+			undecided = t;
+		}
+
+		return undecided;
+	}
+
+	private void derive(Incompatibility cause, int term) {
+		int var = cause.vars[term];
+		BitSet narrowed = (BitSet) allowed[var].clone();
+		narrowed.and(cause.excluded[term]);
+		assign(var, narrowed, cause);
+	}
+
+	private void assign(int var, BitSet set, Incompatibility cause) {
+		history[var][historySize[var]++] = assignments.size();
+		assignments.add(new Assignment(var, set, level, cause));
+		allowed[var] = set;
+	}
+
+	// Returns the learned incompatibility after backjumping, watching the term left to derive first,
+	// or null if the graph has no solution
+	private Incompatibility resolveConflict(Incompatibility incompatibility) {
+		boolean derived = false;
+		int origin = -1;
+
+		for(int t = 0; t < incompatibility.vars.length; t++)
+			include(incompatibility.vars[t], (BitSet) incompatibility.sets[t].clone());
+
+		// Only terms holding from the start, nothing to go back on
+		if(conflictSize == 0) origin = incompatibility.vars[0];
+
+		while(conflictSize > 0) {
+			int term = -1, satisfier = -1, latest = -1, previous = 0;
+
+			for(int i = 0; i < conflictSize; i++)
+				if(satisfiers[conflictVars[i]] > satisfier) {
+					term = conflictVars[i];
+					satisfier = satisfiers[term];
+				}
+
+			for(int i = 0; i < conflictSize; i++) {
+				int var = conflictVars[i];
+				if(var != term && assignments.get(satisfiers[var]).level() >= previous) {
+					previous = assignments.get(satisfiers[var]).level();
+					latest = var;
+				}
+			}
+
+			Assignment assignment = assignments.get(satisfier);
+			// The plugin whose versions ran out first is the one to report
+			if(origin < 0) origin = term;
+
+			if(assignment.cause() == null || previous < assignment.level()) {
+				if(derived) {
+					learned++;
+					incompatibility = learn();
+				}
+
+				clearConflict();
+				backjump(previous);
+				watch(incompatibility, termOf(incompatibility, term), termOf(incompatibility, latest));
+				return incompatibility;
+			}
+
+			// With the other terms holding the variable can be in neither set,
+			// while the other variables have to satisfy both sides at once
+			Incompatibility cause = assignment.cause();
+			for(int t = 0; t < cause.vars.length; t++) {
+				int var = cause.vars[t];
+				BitSet set = conflictTerms[var];
+
+				if(set == null) {
+					include(var, (BitSet) cause.sets[t].clone());
+					continue;
+				}
+
+				if(var == term) set.or(cause.sets[t]);
+				else set.and(cause.sets[t]);
+
+				// A term covering every candidate always holds and tells nothing
+				if(set.cardinality() == domains[var].length) exclude(var);
+				else satisfiers[var] = satisfier(var, set);
+			}
+
+			derived = true;
+		}
+
+		clearConflict();
+		failed = origin;
+		return null;
+	}
+
+	private void include(int var, BitSet set) {
+		if(set.cardinality() == domains[var].length) return;
+
+		conflictTerms[var] = set;
+		satisfiers[var] = satisfier(var, set);
+		positions[var] = conflictSize;
+		conflictVars[conflictSize++] = var;
+	}
+
+	private void exclude(int var) {
+		int last = conflictVars[--conflictSize];
+		conflictVars[positions[var]] = last;
+		positions[last] = positions[var];
+		conflictTerms[var] = null;
+	}
+
+	private Incompatibility learn() {
+		int[] vars = Arrays.copyOf(conflictVars, conflictSize);
+		BitSet[] sets = new BitSet[conflictSize];
+		for(int i = 0; i < conflictSize; i++)
+			sets[i] = conflictTerms[vars[i]];
+
+		return incompatibility(vars, sets);
+	}
+
+	private void clearConflict() {
+		for(int i = 0; i < conflictSize; i++)
+			conflictTerms[conflictVars[i]] = null;
+		conflictSize = 0;
+	}
+
+	private static int termOf(Incompatibility incompatibility, int var) {
+		for(int t = 0; t < incompatibility.vars.length; t++)
+			if(incompatibility.vars[t] == var) return t;
+		return -1;
+	}
+
+	// The earliest assignment after which the variable only allows versions in the set
+	private int satisfier(int var, BitSet set) {
+		for(int h = 0; h < historySize[var]; h++)
+			if(within(assignments.get(history[var][h]).set(), set)) return history[var][h];
+
+		throw new IllegalStateException("Incompatibility not satisfied by plugin \"" + names[var] + "\"");
+	}
+
+	private void backjump(int target) {
+		while(!assignments.isEmpty() && assignments.getLast().level() > target) {
+			int var = assignments.removeLast().var();
+			historySize[var]--;
+			allowed[var] = historySize[var] > 0
+					? assignments.get(history[var][historySize[var] - 1]).set()
+					: full(var);
+		}
+
+		level = target;
+	}
+
+	private void watch(Incompatibility incompatibility, int first, int second) {
+		for(int w : incompatibility.watches)
+			if(w >= 0) watching.get(incompatibility.vars[w]).remove(incompatibility);
+
+		incompatibility.watches[0] = first;
+		incompatibility.watches[1] = second;
+
+		// Down to a single term the incompatibility is settled for good at level zero
+		if(second >= 0) {
+			watching.get(incompatibility.vars[first]).add(incompatibility);
+			watching.get(incompatibility.vars[second]).add(incompatibility);
+		}
+	}
+
+	private Incompatibility incompatibility(int[] vars, BitSet[] sets) {
+		BitSet[] excluded = new BitSet[sets.length];
+		for(int t = 0; t < vars.length; t++) {
+			excluded[t] = full(vars[t]);
+			excluded[t].andNot(sets[t]);
+		}
+
+		return new Incompatibility(vars, sets, excluded);
+	}
+
+	private void connect(int var, int dependency, Map<VersionRange, BitSet> ranges) {
+		List<BitSet> groups = new ArrayList<>(), accepted = new ArrayList<>();
+		BitSet unconstrained = full(var);
+
+		ranges.forEach((range, versionsOf) -> {
+			// Ranges name their plugin, popular ones are only matched against its candidates once
+			BitSet accepting = acceptedSets.computeIfAbsent(range, _ -> accepted(dependency, range));
+			// A range accepting every candidate can never be violated
+			if(accepting.cardinality() == domains[dependency].length) return;
+
+			// A version depending on its own plugin has to be in the range itself
+			if(var == dependency) {
+				BitSet rejected = (BitSet) versionsOf.clone();
+				rejected.andNot(accepting);
+				if(!rejected.isEmpty()) units.add(incompatibility(new int[] { var }, new BitSet[] { rejected }));
+				return;
+			}
+
+			groups.add(versionsOf);
+			accepted.add(accepting);
+			unconstrained.andNot(versionsOf);
+		});
+
+		if(groups.isEmpty()) return;
+
+		Requirement requirement = new Requirement(var, dependency, unconstrained,
+				groups.toArray(BitSet[]::new), accepted.toArray(BitSet[]::new));
+		requirements.get(var).add(requirement);
+		requirements.get(dependency).add(requirement);
+	}
+
+	private static boolean within(BitSet set, BitSet of) {
+		for(int v = set.nextSetBit(0); v >= 0; v = set.nextSetBit(v + 1))
+			if(!of.get(v)) return false;
+		return true;
+	}
+
+	private BitSet full(int var) {
+		BitSet set = new BitSet(domains[var].length);
+		set.set(0, domains[var].length);
+		return set;
+	}
+
+	private BitSet accepted(int var, VersionRange range) {
+		BitSet set = new BitSet(domains[var].length);
+		for(int v = 0; v < domains[var].length; v++)
+			if(range.contains(domains[var][v])) set.set(v);
+			// Candidates are sorted, the ones in range are all next to each other
+			else if(!set.isEmpty()) break;
+		return set;
+	}
+
+	private int[] dependentsFirst(int size) {
+		int[] result = new int[size];
+		boolean[] visited = new boolean[size];
+		int[] position = { size };
+
+		Deque<int[]> stack = new ArrayDeque<>();
+		for(int root = 0; root < size; root++) {
+			if(visited[root]) continue;
+			visited[root] = true;
+			stack.push(new int[] { root, 0 });
+
+			// Iterative post order over the union of every version's dependencies
+			while(!stack.isEmpty()) {
+				int[] frame = stack.peek();
+				int[] next = outgoing[frame[0]];
+
+				if(frame[1] < next.length) {
+					int dependency = next[frame[1]++];
+					if(!visited[dependency]) {
+						visited[dependency] = true;
+						stack.push(new int[] { dependency, 0 });
+					}
+				} else result[--position[0]] = stack.pop()[0];
+			}
+		}
+
+		// Filled from the back, dependencies end up after everything depending on them
+		return result;
+	}
+
+	private VersionRange requirement(int dependent, int version, int dependency) {
+		int[] vars = requiredVars[dependent][version];
+		for(int d = 0; d < vars.length; d++)
+			if(vars[d] == dependency) return requiredRanges[dependent][version][d];
+		return null;
+	}
+
+	private SelectionResult diagnose(int var) {
+		if(var < 0) var = order[0];
+
+		Map<Version, Map<PluginManifest, Boolean>> compatibilities = new HashMap<>();
+		for(int v = 0; v < domains[var].length; v++) {
+			Map<PluginManifest, Boolean> vercomp = new HashMap<>();
+			compatibilities.put(domains[var][v], vercomp);
+
+			for(int dependent : incoming[var])
+				for(int dv = 0; dv < domains[dependent].length; dv++) {
+					VersionRange range = requirement(dependent, dv, var);
+					if(range != null) vercomp.put(nodes[dependent].versions().get(domains[dependent][dv]),
+							range.contains(domains[var][v]));
+				}
+		}
+
+		return new SelectionResult(names[var], null, compatibilities);
+	}
+
+	private record Assignment(int var, BitSet set, int level, Incompatibility cause) {}
+
+	// Versions of the dependent grouped by the range they require on the dependency, with
+	// accepted[i] the candidates in the range of groups[i]. The unconstrained ones accept any
+	private record Requirement(int dependent, int dependency, BitSet unconstrained,
+							   BitSet[] groups, BitSet[] accepted) {}
+
+	// Terms "vars[i] takes a version in sets[i]" that can't all be true together,
+	// excluded[i] is the complement of sets[i] among the candidates of vars[i]
+	@RequiredArgsConstructor
+	private static final class Incompatibility {
+		private final int[] vars;
+		private final BitSet[] sets;
+		private final BitSet[] excluded;
+		private final int[] watches = { -1, -1 };
+	}
+
+	public record Resolution(Map<String, Version> selection, SelectionResult failure) {
+		public boolean successful() {
+			return failure == null;
+		}
+
+		public Map<String, Version> orElseThrow() {
+			if(failure != null) throw failure.toException();
+			return selection;
+		}
+	}
+}
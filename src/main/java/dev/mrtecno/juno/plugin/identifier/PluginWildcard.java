@@ -1,11 +1,22 @@
 package dev.mrtecno.juno.plugin.identifier;
 
 public sealed interface PluginWildcard extends PluginFilter
-		permits NamedIdentifier, PluginIdentifier {
+		permits NamedIdentifier, PluginIdentifier, VersionRange {
 	String name();
 
+	default VersionRange range() {
+		return switch(this) {
+			case NamedIdentifier named -> VersionRange.any(named.name());
+			case PluginIdentifier id -> VersionRange.exactly(id.name(), id.version());
+			case VersionRange range -> range;
+		};
+	}
+
 	static PluginWildcard parseWildcard(String wildcard) {
 		if(wildcard.contains(":")) {
+			String[] split = wildcard.split(":", 2);
+			if(VersionRange.isRange(split[1]))
+				return VersionRange.parseRange(split[0], split[1]);
 			return PluginIdentifier.parseIdentifier(wildcard);
 		} else return new NamedIdentifier(wildcard);
 	}
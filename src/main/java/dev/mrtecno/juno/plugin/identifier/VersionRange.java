@@ -0,0 +1,155 @@
+package dev.mrtecno.juno.plugin.identifier;
+
+import dev.mrtecno.juno.plugin.PluginManifest;
+
+import java.util.Collections;
+import java.util.NavigableMap;
+
+// Null bounds are unbounded
+public record VersionRange(String name, Version lower, boolean lowerInclusive,
+						   Version upper, boolean upperInclusive) implements PluginWildcard {
+	@Override
+	public boolean test(PluginManifest manifest) {
+		return name().equals(manifest.name()) && contains(manifest.version());
+	}
+
+	public boolean contains(Version version) {
+		if(lower != null) {
+			int cmp = version.compareTo(lower);
+			if(cmp < 0 || (cmp == 0 && !lowerInclusive)) return false;
+		}
+
+		if(upper != null) {
+			int cmp = version.compareTo(upper);
+			return cmp < 0 || (cmp == 0 && upperInclusive);
+		}
+
+		return true;
+	}
+
+	public boolean isEmpty() {
+		if(lower == null || upper == null) return false;
+
+		int cmp = lower.compareTo(upper);
+		return cmp > 0 || (cmp == 0 && !(lowerInclusive && upperInclusive));
+	}
+
+	public VersionRange intersect(VersionRange other) {
+		if(!name().equals(other.name()))
+			throw new IllegalArgumentException("Cannot intersect ranges of different plugins \""
+					+ name() + "\" and \"" + other.name() + "\"");
+
+		Version lo = lower, hi = upper;
+		boolean loIn = lowerInclusive, hiIn = upperInclusive;
+
+		if(other.lower != null) {
+			int cmp = lo == null ? -1 : lo.compareTo(other.lower);
+			if(cmp < 0) {
+				lo = other.lower;
+				loIn = other.lowerInclusive;
+			} else if(cmp == 0) loIn &= other.lowerInclusive;
+		}
+
+		if(other.upper != null) {
+			int cmp = hi == null ? 1 : hi.compareTo(other.upper);
+			if(cmp > 0) {
+				hi = other.upper;
+				hiIn = other.upperInclusive;
+			} else if(cmp == 0) hiIn &= other.upperInclusive;
+		}
+
+		return new VersionRange(name, lo, loIn, hi, hiIn);
+	}
+
+	// A view over the versions in range, so no candidate is ever tested one by one
+	public <V> NavigableMap<Version, V> subMap(NavigableMap<Version, V> versions) {
+		if(isEmpty()) return Collections.emptyNavigableMap();
+
+		if(lower == null && upper == null) return versions;
+		if(lower == null) return versions.headMap(upper, upperInclusive);
+		if(upper == null) return versions.tailMap(lower, lowerInclusive);
+
+		return versions.subMap(lower, lowerInclusive, upper, upperInclusive);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(name).append(":");
+		if(lower == null && upper == null) return sb.append(">=0.0.0").toString();
+
+		if(lower != null) sb.append(lowerInclusive ? ">=" : ">").append(lower);
+		if(lower != null && upper != null) sb.append(" ");
+		if(upper != null) sb.append(upperInclusive ? "<=" : "<").append(upper);
+
+		return sb.toString();
+	}
+
+	public static VersionRange any(String name) {
+		return new VersionRange(name, null, false, null, false);
+	}
+
+	public static VersionRange exactly(String name, Version version) {
+		return new VersionRange(name, version, true, version, true);
+	}
+
+	public static boolean isRange(String spec) {
+		spec = spec.trim();
+		return !spec.isEmpty() && ("^~<>=".indexOf(spec.charAt(0)) >= 0 || spec.contains(" "));
+	}
+
+	public static VersionRange parseRange(String name, String spec) {
+		VersionRange range = any(name);
+
+		for(String part : spec.trim().split("\\s+")) {
+			if(part.startsWith("^")) {
+				int[] v = parsePartial(part.substring(1));
+				Version base = new Version(v[0], v[1], v[2]);
+
+				// Only the leftmost non-zero component may not change, as in npm/cargo
+				Version next;
+				if(v[0] > 0 || v[3] == 1) next = new Version(v[0] + 1, 0, 0);
+				else if(v[1] > 0 || v[3] == 2) next = new Version(0, v[1] + 1, 0);
+				else next = new Version(0, 0, v[2] + 1);
+
+				range = range.intersect(new VersionRange(name, base, true, next, false));
+			} else if(part.startsWith("~")) {
+				int[] v = parsePartial(part.substring(1));
+				Version base = new Version(v[0], v[1], v[2]);
+				Version next = v[3] == 1 ? new Version(v[0] + 1, 0, 0) : new Version(v[0], v[1] + 1, 0);
+
+				range = range.intersect(new VersionRange(name, base, true, next, false));
+			} else if(part.startsWith(">=")) {
+				range = range.intersect(new VersionRange(name, parseBound(part.substring(2)), true, null, false));
+			} else if(part.startsWith(">")) {
+				range = range.intersect(new VersionRange(name, parseBound(part.substring(1)), false, null, false));
+			} else if(part.startsWith("<=")) {
+				range = range.intersect(new VersionRange(name, null, false, parseBound(part.substring(2)), true));
+			} else if(part.startsWith("<")) {
+				range = range.intersect(new VersionRange(name, null, false, parseBound(part.substring(1)), false));
+			} else {
+				range = range.intersect(exactly(name, parseBound(part.startsWith("=") ? part.substring(1) : part)));
+			}
+		}
+
+		return range;
+	}
+
+	private static Version parseBound(String version) {
+		int[] v = parsePartial(version);
+		return new Version(v[0], v[1], v[2]);
+	}
+
+	// Missing components default to zero, the last element is how many were given
+	private static int[] parsePartial(String version) {
+		String[] split = version.split("\\.");
+		if(split.length == 0 || split.length > 3)
+			throw new IllegalArgumentException("Invalid version: " + version);
+
+		int[] parts = new int[4];
+		for(int i = 0; i < split.length; i++)
+			parts[i] = Integer.parseInt(split[i]);
+		parts[3] = split.length;
+
+		return parts;
+	}
+}
@@ -1,33 +1,126 @@
 package dev.mrtecno.juno.service;
 
-import lombok.Getter;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Optional;
-
-@Getter
+// Services can be asked for by any class or interface they extend, the registered one with the
+// highest priority wins and the latest one among equals. Lookups only read a published cache
 @SuppressWarnings("unchecked")
 public class ServiceManager {
-	private final Map<Class<? extends Service>, Service> services = new HashMap<>();
+	public static final int DEFAULT_PRIORITY = 0;
+
+	private final Map<Class<? extends Service>, List<Registration>> registrations = new HashMap<>();
+	private final AtomicLong order = new AtomicLong();
+
+	// Asked in order for classes nobody registered, like plugins that aren't up yet
+	private final List<Function<Class<?>, Optional<? extends Service>>> providers = new CopyOnWriteArrayList<>();
+
+	// A ClassValue can't be cleared, every change swaps in a fresh one instead
+	private volatile ClassValue<Optional<Service>> resolved = resolver();
 
 	public <T extends Service> Optional<T> register(Class<T> clazz, T service) {
-		return Optional.ofNullable((T) services.put(clazz, service));
+		return register(clazz, service, DEFAULT_PRIORITY);
 	}
 
 	public <T extends Service> Optional<T> register(T service) {
 		return register((Class<T>) service.getClass(), service);
 	}
 
-	public <T extends Service> Optional<T> unregister(Class<T> clazz) {
-		return Optional.ofNullable((T) services.remove(clazz));
+	public <T extends Service> Optional<T> register(T service, int priority) {
+		return register((Class<T>) service.getClass(), service, priority);
+	}
+
+	// Replaces whatever was registered for the same class at the same priority
+	public synchronized <T extends Service> Optional<T> register(Class<T> clazz, T service, int priority) {
+		if(!clazz.isInstance(service))
+			throw new IllegalArgumentException(service + " is not a " + clazz.getName());
+
+		List<Registration> list = registrations.computeIfAbsent(clazz, _ -> new ArrayList<>());
+		Optional<Registration> previous = list.stream().filter(r -> r.priority() == priority).findFirst();
+		previous.ifPresent(list::remove);
+		list.add(new Registration(clazz, service, priority, order.incrementAndGet()));
+
+		invalidate();
+		return previous.map(r -> (T) r.service());
+	}
+
+	// Drops every registration of the class, giving back the one lookups were getting
+	public synchronized <T extends Service> Optional<T> unregister(Class<T> clazz) {
+		List<Registration> list = registrations.remove(clazz);
+		if(list == null) return Optional.empty();
+
+		invalidate();
+		return list.stream().min(Registration.ORDER).map(r -> (T) r.service());
+	}
+
+	public synchronized boolean unregister(Service service) {
+		boolean removed = false;
+		for(List<Registration> list : registrations.values())
+			removed |= list.removeIf(r -> r.service() == service);
+		if(!removed) return false;
+
+		registrations.values().removeIf(List::isEmpty);
+		invalidate();
+		return true;
+	}
+
+	public void provider(Function<Class<?>, Optional<? extends Service>> provider) {
+		providers.add(provider);
 	}
 
 	public <T extends Service> Optional<T> get(Class<T> clazz) {
-		return Optional.ofNullable((T) services.get(clazz));
+		Optional<Service> service = resolved.get(clazz);
+		if(service.isPresent() || providers.isEmpty()) return (Optional<T>) service;
+
+		return providers.stream().map(p -> p.apply(clazz))
+				.flatMap(Optional::stream).findFirst().map(s -> (T) s);
+	}
+
+	public <T extends Service> T require(Class<T> clazz) {
+		return get(clazz).orElseThrow(() -> new IllegalArgumentException("Service not found: " + clazz.getName()));
+	}
+
+	// Every service that can be handed out for the class, in the order lookups prefer them
+	public synchronized <T extends Service> List<T> all(Class<T> clazz) {
+		return candidates(clazz).map(r -> (T) r.service()).toList();
+	}
+
+	public synchronized Map<Class<? extends Service>, Service> services() {
+		Map<Class<? extends Service>, Service> services = new HashMap<>();
+		registrations.forEach((clazz, list) -> list.stream().min(Registration.ORDER)
+				.ifPresent(r -> services.put(clazz, r.service())));
+		return Collections.unmodifiableMap(services);
+	}
+
+	private void invalidate() {
+		resolved = resolver();
+	}
+
+	// A lookup racing a change may fill the resolver being dropped, only the fresh one is read again
+	private ClassValue<Optional<Service>> resolver() {
+		return new ClassValue<>() {
+			@Override
+			protected Optional<Service> computeValue(Class<?> type) {
+				synchronized(ServiceManager.this) {
+					return candidates(type).findFirst().map(Registration::service);
+				}
+			}
+		};
+	}
+
+	private Stream<Registration> candidates(Class<?> type) {
+		return registrations.entrySet().stream()
+				.filter(e -> type.isAssignableFrom(e.getKey()))
+				.flatMap(e -> e.getValue().stream())
+				.sorted(Registration.ORDER);
 	}
 
-	public Service require(Class<? extends Service> clazz) {
-		return get(clazz).orElseThrow(() -> new IllegalArgumentException("Service not found"));
+	private record Registration(Class<? extends Service> clazz, Service service, int priority, long order) {
+		private static final Comparator<Registration> ORDER = Comparator
+				.comparingInt(Registration::priority).reversed()
+				.thenComparing(Comparator.comparingLong(Registration::order).reversed());
 	}
 }
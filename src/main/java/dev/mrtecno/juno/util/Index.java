@@ -4,64 +4,121 @@ import lombok.AccessLevel;
 import lombok.Getter;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
-import java.util.stream.Stream;
 
 @Getter(AccessLevel.PRIVATE)
 public class Index<T> {
-	private final Map<Class<?>, Map<Object, T>> indexes = new HashMap<>();
-	private final Collection<Function<T, ?>> keys = new ArrayList<>();
+	// One slot per key function, so two keys of the same class never clash
+	private final List<Function<T, ?>> keys;
+	private final List<Map<Object, T>> slots;
+
+	// How many slots still point at each value, it's a member as long as one does
+	private final Map<T, Integer> members = new ConcurrentHashMap<>();
+	private final Set<T> view = Collections.unmodifiableSet(members.keySet());
+
+	// Reads never lock, writes do since a value has to land in every slot at once
+	private final Object lock = new Object();
 
 	@SafeVarargs
 	public Index(Function<T, ?>... keys) {
-		for (Function<T, ?> key : keys)
-			keys().add(key);
-	}
+		// Copied one by one, the generic array itself never leaves the constructor
+		List<Function<T, ?>> functions = new ArrayList<>(keys.length);
+		List<Map<Object, T>> slots = new ArrayList<>(keys.length);
+		for(Function<T, ?> key : keys) {
+			functions.add(key);
+			slots.add(new ConcurrentHashMap<>());
+		}
 
-	protected Stream<Object> streamKeys(T val) {
-		return keys().stream().map(f -> f.apply(val));
+		this.keys = List.copyOf(functions);
+		this.slots = List.copyOf(slots);
 	}
 
 	public void put(T val) {
-		streamKeys(val).forEach(k -> indexes().computeIfAbsent(
-						k.getClass(), _ -> new HashMap<>()).put(k, val));
+		synchronized(lock()) {
+			Object[] keys = keysOf(val);
+
+			// A value sharing a key only loses that slot, it's still found through the others
+			for(int i = 0; i < keys.length; i++) {
+				T previous = slots().get(i).put(keys[i], val);
+				if(previous == val) continue;
+
+				if(previous != null) release(previous);
+				members().merge(val, 1, Integer::sum);
+			}
+		}
 	}
 
-	public Map<Object, T> getIndex(Object key) {
-		return indexes().computeIfAbsent(key.getClass(), _ -> new HashMap<>());
+	// Only goes in if nothing holds its first key yet, checked and written at once
+	public boolean putIfAbsent(T val) {
+		synchronized(lock()) {
+			if(slots().getFirst().containsKey(keysOf(val)[0])) return false;
+
+			put(val);
+			return true;
+		}
 	}
 
 	public T get(Object key) {
-		return getIndex(key).get(key);
+		for(Map<Object, T> slot : slots()) {
+			T val = slot.get(key);
+			if(val != null) return val;
+		}
+
+		return null;
 	}
 
 	public void remove(Object key) {
-		getIndex(key).remove(key);
+		synchronized(lock()) {
+			T val = get(key);
+			if(val != null) removeValue(val);
+		}
 	}
 
 	public void removeValue(T val) {
-		streamKeys(val).forEach(k -> indexes().get(k.getClass()).remove(k));
+		synchronized(lock()) {
+			if(!members().containsKey(val)) return;
+
+			Object[] keys = keysOf(val);
+			for(int i = 0; i < keys.length; i++)
+				if(slots().get(i).remove(keys[i], val)) release(val);
+		}
 	}
 
 	public void clear() {
-		indexes().clear();
+		synchronized(lock()) {
+			slots().forEach(Map::clear);
+			members().clear();
+		}
 	}
 
 	public boolean containsKey(Object key) {
-		return indexes().containsKey(key.getClass()) && getIndex(key).containsKey(key);
+		for(Map<Object, T> slot : slots())
+			if(slot.containsKey(key)) return true;
+		return false;
 	}
 
 	public boolean containsValue(T val) {
-		return streamKeys(val).anyMatch(k -> getIndex(k).containsValue(val));
+		return members().containsKey(val);
 	}
 
 	public int size() {
-		return indexes().values().stream()
-				.mapToInt(Map::size).distinct().findFirst().orElse(0);
+		return members().size();
 	}
 
+	// A live view, iterating it while the index changes is safe
 	public Collection<T> values() {
-		return indexes().values().stream()
-				.flatMap(m -> m.values().stream()).distinct().toList();
+		return view();
+	}
+
+	private void release(T val) {
+		members().computeIfPresent(val, (_, held) -> held > 1 ? held - 1 : null);
+	}
+
+	private Object[] keysOf(T val) {
+		Object[] keys = new Object[keys().size()];
+		for(int i = 0; i < keys.length; i++)
+			keys[i] = Objects.requireNonNull(keys().get(i).apply(val), "Index keys can't be null");
+		return keys;
 	}
 }
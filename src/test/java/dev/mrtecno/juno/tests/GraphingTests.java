@@ -1,12 +1,35 @@
 package dev.mrtecno.juno.tests;
 
 import dev.mrtecno.juno.plugin.PluginManifest;
+import dev.mrtecno.juno.plugin.graph.CompatibilityException;
+import dev.mrtecno.juno.plugin.graph.DependencyGraph;
+import dev.mrtecno.juno.plugin.graph.GraphExecutor;
+import dev.mrtecno.juno.plugin.graph.GraphSnapshot;
 import dev.mrtecno.juno.plugin.graph.PluginGraph;
+import dev.mrtecno.juno.plugin.graph.PluginGraph.PluginNode;
+import dev.mrtecno.juno.plugin.graph.TraversalException;
+import dev.mrtecno.juno.plugin.graph.VersionResolver;
 import dev.mrtecno.juno.plugin.identifier.PluginIdentifier;
 import dev.mrtecno.juno.plugin.identifier.PluginWildcard;
 import dev.mrtecno.juno.plugin.identifier.Version;
+import lombok.RequiredArgsConstructor;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
 public class GraphingTests {
 	PluginManifest A = new PluginManifest(null, "xxx", new PluginIdentifier(
 			"A", Version.parseVersion("1.0.0")
@@ -40,4 +63,400 @@ public class GraphingTests {
 
 		graph.traverse(false).forEachOrdered(System.out::println);
 	}
+
+	@Test
+	public void testLayerInvalidation() {
+		PluginGraph graph = new PluginGraph();
+
+		graph.add(manifest("X", "1.0.0"));
+		graph.add(manifest("Y", "1.0.0", "X"));
+		assertEquals(1, graph.layer(graph.pluginNames().get("Y")));
+
+		// Selecting a newer X with its own dependency has to push Y down a layer
+		graph.add(manifest("W", "1.0.0"));
+		graph.add(manifest("X", "2.0.0", "W"));
+		assertEquals(1, graph.layer(graph.pluginNames().get("X")));
+		assertEquals(2, graph.layer(graph.pluginNames().get("Y")));
+	}
+
+	@Test
+	public void testLayersRacingWriters() throws InterruptedException {
+		HookedGraph graph = new HookedGraph();
+		graph.add("B");
+		graph.add("C", "B");
+		HookedGraph.HookedNode top = graph.uniqueNodes().stream()
+				.filter(n -> n.element().equals("C")).findFirst().orElseThrow();
+
+		// A writer gives B a dependency while a reader is still layering it from its old edges
+		graph.hooks.put("B", () -> {
+			Thread writer = new Thread(() -> graph.addDependency("B", "A"));
+			writer.start();
+			try {
+				writer.join();
+			} catch(InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		});
+
+		assertEquals(1, graph.layer(top));
+		assertEquals(2, graph.layer(top));
+		assertEquals(List.of("A", "B", "C"), graph.traverse().toList());
+	}
+
+	// Runs a hook the first time a node's dependencies are read
+	private static class HookedGraph extends DependencyGraph<String, HookedGraph.HookedNode> {
+		private final Map<String, Runnable> hooks = new ConcurrentHashMap<>();
+
+		@Override
+		protected HookedNode makeNode(String element, Set<Node<String>> dependencies, Set<Node<String>> dependents) {
+			return new HookedNode(element, dependencies, dependents);
+		}
+
+		@RequiredArgsConstructor
+		private class HookedNode implements Node<String> {
+			private final String element;
+			private final Set<Node<String>> dependencies, dependents;
+
+			@Override
+			public String element() {
+				return element;
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public <N extends Node<String>> Collection<N> dependencies() {
+				Collection<N> current = (Collection<N>) List.copyOf(dependencies);
+				Runnable hook = hooks.remove(element);
+				if(hook != null) hook.run();
+				return hook != null ? current : (Collection<N>) dependencies;
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public <N extends Node<String>> Collection<N> dependents() {
+				return (Collection<N>) dependents;
+			}
+		}
+	}
+
+	@Test
+	public void testParallelTraversal() {
+		PluginGraph graph = new PluginGraph();
+
+		graph.add(manifest("D", "1.0.0"));
+		graph.add(manifest("L", "1.0.0", "D"));
+		graph.add(manifest("R", "1.0.0", "D"));
+		graph.add(manifest("T", "1.0.0", "L", "R"));
+		graph.add(manifest("F", "1.0.0", "D"));
+		graph.add(manifest("G", "1.0.0", "F"));
+
+		Set<String> done = ConcurrentHashMap.newKeySet();
+		TraversalException e = assertThrows(TraversalException.class, () -> graph.parallelTraversal(n -> {
+			n.<PluginGraph.PluginNode>dependencies().forEach(d -> assertTrue(done.contains(d.name())));
+			if(n.name().equals("F")) throw new IllegalStateException("F failed");
+			done.add(n.name());
+		}, new GraphExecutor(2)));
+
+		assertEquals(Set.of("D", "L", "R", "T"), done);
+		assertEquals(1, e.failures().size());
+		assertEquals(1, e.skipped().size());
+	}
+
+	@Test
+	public void testVersionRanges() {
+		PluginGraph graph = new PluginGraph();
+
+		graph.add(manifest("D", "1.0.0"));
+		graph.add(manifest("D", "1.4.2"));
+		graph.add(manifest("D", "1.5.0"));
+		graph.add(manifest("D", "2.0.0"));
+		assertEquals(Version.parseVersion("2.0.0"), graph.pluginNames().get("D").selectedVersion());
+
+		graph.add(manifest("U", "1.0.0", "D:^1.2"));
+		assertEquals(Version.parseVersion("1.5.0"), graph.pluginNames().get("D").selectedVersion());
+
+		graph.add(manifest("V", "1.0.0", "D:~1.4.0"));
+		assertEquals(Version.parseVersion("1.4.2"), graph.pluginNames().get("D").selectedVersion());
+
+		graph.add(manifest("W", "1.0.0", "D:>=1.0.0 <1.4.0"));
+		assertTrue(graph.pluginNames().get("D").versionIfSelected().isEmpty());
+
+		assertEquals("D:>=1.2.0 <2.0.0", PluginWildcard.parseWildcard("D:^1.2").toString());
+		assertEquals("D:>=0.2.3 <0.3.0", PluginWildcard.parseWildcard("D:^0.2.3").toString());
+	}
+
+	@Test
+	public void testBacktrackingResolution() {
+		PluginGraph graph = new PluginGraph();
+
+		graph.add(manifest("C", "1.0.0"));
+		graph.add(manifest("C", "2.0.0"));
+		graph.add(manifest("B", "1.0.0", "C:1.0.0"));
+		graph.add(manifest("B", "2.0.0", "C:2.0.0"));
+		graph.add(manifest("A", "1.0.0", "B", "C:1.0.0"));
+
+		// Greedy selection takes B 2.0.0 first and can never go back on it
+		Map<String, Version> selection = graph.resolveAll();
+		assertEquals(Version.parseVersion("1.0.0"), selection.get("B"));
+		assertEquals(Version.parseVersion("1.0.0"), selection.get("C"));
+		assertEquals(Version.parseVersion("1.0.0"), graph.pluginNames().get("B").selectedVersion());
+
+		graph.add(manifest("D", "1.0.0", "C:>=2.0.0"));
+		CompatibilityException e = assertThrows(CompatibilityException.class, graph::resolveAll);
+		assertEquals("C", e.result().name());
+	}
+
+	@Test
+	public void testResolverAgainstBruteForce() {
+		Random random = new Random(42);
+		String[] ranges = { "", ":1.0.0", ":2.0.0", ":>=2.0.0", ":<2.0.0", ":^1.0.0" };
+
+		for(int round = 0; round < 2000; round++) {
+			List<PluginManifest> catalog = new ArrayList<>();
+			int plugins = 2 + random.nextInt(3);
+			for(int p = 0; p < plugins; p++)
+				for(int v = 1; v <= 3; v++) {
+					if(v > 1 && random.nextInt(3) == 0) continue;
+
+					String[] dependencies = new String[random.nextInt(3)];
+					for(int d = 0; d < dependencies.length; d++)
+						dependencies[d] = (random.nextInt(10) == 0 ? "Missing" : "P" + random.nextInt(plugins))
+								+ ranges[random.nextInt(ranges.length)];
+					catalog.add(manifest("P" + p, v + ".0.0", dependencies));
+				}
+
+			PluginGraph graph = new PluginGraph();
+			try {
+				graph.addAll(catalog);
+			} catch(CompatibilityException ignored) {
+				// Greedy selection gave up on a cycle, everything is in the graph all the same
+			}
+
+			VersionResolver.Resolution resolution = new VersionResolver(graph).resolve();
+			Map<String, List<PluginManifest>> byName = new TreeMap<>();
+			catalog.forEach(m -> byName.computeIfAbsent(m.name(), _ -> new ArrayList<>()).add(m));
+
+			assertEquals(solvable(byName, new ArrayList<>(byName.keySet()), new HashMap<>()),
+					resolution.successful(), "Round " + round + ": " + catalog);
+			if(resolution.successful()) {
+				Map<String, PluginManifest> selected = new HashMap<>();
+				resolution.selection().forEach((name, version) -> selected.put(name, byName.get(name).stream()
+						.filter(m -> m.version().equals(version)).findFirst().orElseThrow()));
+				assertTrue(satisfied(selected), "Round " + round + ": " + resolution.selection());
+			}
+		}
+	}
+
+	// Every plugin takes one of its versions, every dependency of every one taken has to hold
+	private static boolean solvable(Map<String, List<PluginManifest>> catalog, List<String> names,
+									Map<String, PluginManifest> selected) {
+		if(selected.size() == names.size()) return satisfied(selected);
+
+		String name = names.get(selected.size());
+		for(PluginManifest candidate : catalog.get(name)) {
+			selected.put(name, candidate);
+			if(solvable(catalog, names, selected)) return true;
+			selected.remove(name);
+		}
+
+		return false;
+	}
+
+	private static boolean satisfied(Map<String, PluginManifest> selected) {
+		return selected.values().stream().allMatch(m -> Arrays.stream(m.dependencies())
+				.allMatch(d -> selected.containsKey(d.name()) && d.test(selected.get(d.name()))));
+	}
+
+	@Test
+	public void testUnsatisfiableExplanation() {
+		PluginGraph graph = new PluginGraph();
+		graph.add(manifest("C", "1.0.0"));
+		graph.add(manifest("C", "2.0.0"));
+		graph.add(manifest("A", "1.0.0", "C:1.0.0"));
+		graph.add(manifest("B", "1.0.0", "C:>=2.0.0"));
+
+		VersionResolver.Resolution resolution = new VersionResolver(graph).resolve();
+		assertFalse(resolution.successful());
+		assertEquals("C", resolution.failure().name());
+
+		// Each version of C is blamed on the dependent ruling it out
+		Map<Version, Set<String>> denied = new HashMap<>();
+		resolution.failure().compatibilities().forEach((version, dependents) -> denied.put(version, dependents.entrySet()
+				.stream().filter(d -> !d.getValue()).map(d -> d.getKey().id().toString()).collect(Collectors.toSet())));
+		assertEquals(Map.of(Version.parseVersion("1.0.0"), Set.of("B:1.0.0"),
+				Version.parseVersion("2.0.0"), Set.of("A:1.0.0")), denied);
+
+		CompatibilityException e = assertThrows(CompatibilityException.class, resolution::orElseThrow);
+		assertTrue(e.getMessage().startsWith("No version of plugin C is compatible"), e.getMessage());
+	}
+
+	@Test
+	public void testGraphSnapshot() {
+		PluginGraph graph = new PluginGraph();
+
+		graph.add(manifest("D", "1.0.0"));
+		graph.add(manifest("L", "1.0.0", "D"));
+		graph.add(manifest("R", "1.0.0", "D"));
+		graph.add(manifest("T", "1.0.0", "L", "R"));
+
+		GraphSnapshot<PluginManifest, PluginGraph.PluginNode> snapshot = graph.snapshot();
+		assertSame(snapshot, graph.snapshot());
+		assertEquals(3, snapshot.layerCount());
+
+		int top = snapshot.id(graph.pluginNames().get("T"));
+		assertEquals(2, snapshot.layer(top));
+		assertEquals(2, snapshot.dependencyCount(top));
+		assertEquals(1, snapshot.rootCount());
+		assertEquals(top, snapshot.root(0));
+		assertEquals("D", snapshot.element(snapshot.leaf(0)).name());
+
+		// Every dependency gets a lower id than its dependents
+		for(int id = 0; id < snapshot.size(); id++)
+			for(int i = 0; i < snapshot.dependencyCount(id); i++)
+				assertTrue(snapshot.dependency(id, i) < id);
+
+		graph.add(manifest("U", "1.0.0", "T"));
+		assertNotSame(snapshot, graph.snapshot());
+		assertEquals(4, graph.snapshot().layerCount());
+	}
+
+	@Test
+	public void testConcurrentSnapshots() throws InterruptedException {
+		PluginGraph graph = new PluginGraph();
+		graph.add(manifest("P0", "1.0.0"));
+
+		Thread writer = Thread.ofPlatform().start(() -> {
+			for(int i = 1; i < 300; i++) {
+				graph.add(manifest("P" + i, "1.0.0", "P" + (i - 1)));
+				if(i % 10 == 0) graph.reselectAll();
+			}
+		});
+
+		// Every snapshot a reader gets has to be a whole chain, never one caught halfway through an add
+		long last = -1;
+		while(writer.isAlive()) {
+			GraphSnapshot<PluginManifest, PluginGraph.PluginNode> snapshot = graph.snapshot();
+			assertTrue(snapshot.version() >= last);
+			last = snapshot.version();
+
+			assertEquals(snapshot.size(), snapshot.layerCount());
+			for(int id = 1; id < snapshot.size(); id++)
+				assertEquals(id - 1, snapshot.dependency(id, 0));
+		}
+
+		writer.join();
+		assertEquals(300, graph.snapshot().size());
+	}
+
+	@Test
+	public void testWriterSnapshots() throws InterruptedException {
+		PluginGraph graph = new PluginGraph();
+		graph.add(manifest("D", "1.0.0"));
+		GraphSnapshot<PluginManifest, PluginGraph.PluginNode> before = graph.snapshot();
+
+		// The writer sees its own half done change, nobody else is handed it
+		graph.write(() -> {
+			graph.add(manifest("L", "1.0.0", "D"));
+			assertEquals(2, graph.snapshot().size());
+
+			List<GraphSnapshot<PluginManifest, PluginGraph.PluginNode>> read = new ArrayList<>();
+			Thread reader = Thread.ofPlatform().start(() -> read.add(graph.snapshot()));
+			try {
+				reader.join();
+			} catch(InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+			assertSame(before, read.getFirst());
+		});
+
+		assertEquals(2, graph.snapshot().size());
+	}
+
+	@Test
+	public void testIncrementalReselection() {
+		Set<String> touched = new HashSet<>();
+		PluginGraph graph = new PluginGraph() {
+			@Override
+			protected void markDirty(Node<PluginManifest> node) {
+				touched.add(((PluginNode) node).name());
+				super.markDirty(node);
+			}
+		};
+
+		graph.add(manifest("Base", "1.0.0"));
+		graph.add(manifest("Base", "2.0.0"));
+		for(int i = 0; i < 500; i++) graph.add(manifest("P" + i, "1.0.0", i == 0 ? "Base" : "P" + (i - 1)));
+
+		// A new plugin only reaches what it depends on
+		touched.clear();
+		graph.add(manifest("Leaf", "1.0.0", "P499"));
+		assertEquals(Set.of("Leaf", "P499"), touched);
+
+		touched.clear();
+		graph.add(manifest("Pinning", "1.0.0", "Base:1.0.0"));
+		assertEquals(Set.of("Pinning", "Base"), touched);
+		assertEquals(Version.parseVersion("1.0.0"), graph.pluginNames().get("Base").selectedVersion());
+
+		// Removing it frees the range again
+		touched.clear();
+		graph.remove(graph.pluginNames().get("Pinning"));
+		assertEquals(Set.of("Base"), touched);
+		assertEquals(Version.parseVersion("2.0.0"), graph.pluginNames().get("Base").selectedVersion());
+	}
+
+	@Test
+	public void testOscillatingCycle() {
+		PluginGraph graph = new PluginGraph();
+
+		// Every selection of one asks for the other version of the other, greedy selection goes round forever
+		CompatibilityException e = assertThrows(CompatibilityException.class, () -> graph.addAll(List.of(
+				manifest("A", "1.0.0", "B:2.0.0"), manifest("A", "2.0.0", "B:1.0.0"),
+				manifest("B", "1.0.0", "A:1.0.0"), manifest("B", "2.0.0", "A:2.0.0"))));
+		assertTrue(e.getCause().getMessage().contains("never settles"), e.getCause().getMessage());
+	}
+
+	@Test
+	public void testRootsAndLeaves() {
+		PluginGraph graph = new PluginGraph();
+		graph.add(manifest("D", "1.0.0"));
+		graph.add(manifest("D", "2.0.0"));
+		graph.add(manifest("L", "1.0.0", "D"));
+		graph.add(manifest("L", "2.0.0"));
+		graph.add(manifest("T", "1.0.0", "L", "D", "D"));
+		graph.add(manifest("Alone", "1.0.0"));
+		assertEdgeEnds(graph);
+
+		// Duplicate wildcards don't make duplicate edges
+		PluginNode top = graph.pluginNames().get("T");
+		assertEquals(2, top.dependencies().size());
+
+		// Only L 1.0.0 has a dependency, switching between them moves L in and out of the leaves
+		PluginNode middle = graph.pluginNames().get("L");
+		assertTrue(graph.leaves().contains(middle));
+		middle.select(Version.parseVersion("1.0.0"));
+		assertFalse(graph.leaves().contains(middle));
+		assertEdgeEnds(graph);
+		middle.select(Version.parseVersion("2.0.0"));
+		assertTrue(graph.leaves().contains(middle));
+
+		graph.remove(graph.pluginNames().get("Alone"));
+		graph.remove(top);
+		assertEquals(Set.of(middle, graph.pluginNames().get("D")), graph.roots());
+		assertEdgeEnds(graph);
+	}
+
+	private static void assertEdgeEnds(PluginGraph graph) {
+		GraphSnapshot<PluginManifest, PluginNode> snapshot = graph.snapshot();
+		Set<PluginNode> roots = new HashSet<>(), leaves = new HashSet<>();
+		for(int i = 0; i < snapshot.rootCount(); i++) roots.add(snapshot.node(snapshot.root(i)));
+		for(int i = 0; i < snapshot.leafCount(); i++) leaves.add(snapshot.node(snapshot.leaf(i)));
+
+		assertEquals(roots, graph.roots());
+		assertEquals(leaves, graph.leaves());
+	}
+
+	static PluginManifest manifest(String name, String version, String... dependencies) {
+		return new PluginManifest(null, "xxx", new PluginIdentifier(name, Version.parseVersion(version)),
+				Arrays.stream(dependencies).map(PluginWildcard::parseWildcard).toArray(PluginWildcard[]::new));
+	}
 }
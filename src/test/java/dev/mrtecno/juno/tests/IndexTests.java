@@ -0,0 +1,107 @@
+package dev.mrtecno.juno.tests;
+
+import dev.mrtecno.juno.util.Index;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndexTests {
+	private static final int THREADS = 8, OPERATIONS = 5000, NAMES = 8, IDS = 64;
+
+	@Test
+	public void testSlotEviction() {
+		Index<Entry> index = new Index<>(Entry::name, Entry::id);
+		Entry first = new Entry("x", 1), second = new Entry("x", 2), third = new Entry("y", 1);
+
+		// Sharing a name only costs the name slot, the id still finds it
+		index.put(first);
+		index.put(second);
+		assertSame(second, index.get("x"));
+		assertSame(first, index.get(1));
+		assertEquals(2, index.size());
+
+		// Losing its last slot drops it from the members
+		index.put(third);
+		assertSame(third, index.get(1));
+		assertFalse(index.containsValue(first));
+		assertEquals(Set.of(second, third), Set.copyOf(index.values()));
+
+		assertFalse(index.putIfAbsent(new Entry("y", 3)));
+		assertTrue(index.putIfAbsent(new Entry("z", 3)));
+		assertEquals(3, index.size());
+	}
+
+	@Test
+	public void testRemoval() {
+		Index<Entry> index = new Index<>(Entry::name, Entry::id);
+		Collection<Entry> values = index.values();
+		Entry first = new Entry("x", 1), second = new Entry("y", 2);
+		index.put(first);
+		index.put(second);
+
+		// Removing by any key takes the value out of every slot, the view follows
+		index.remove(2);
+		assertNull(index.get("y"));
+		assertFalse(index.containsKey(2));
+		assertEquals(Set.of(first), Set.copyOf(values));
+
+		// Putting the same value again doesn't hold it twice
+		index.put(first);
+		index.removeValue(first);
+		assertEquals(0, index.size());
+		assertTrue(values.isEmpty());
+		assertFalse(index.containsKey("x"));
+	}
+
+	@Test
+	public void testConcurrentIndex() throws InterruptedException {
+		Index<Entry> index = new Index<>(Entry::name, Entry::id);
+		Collection<Throwable> errors = new ConcurrentLinkedQueue<>();
+
+		List<Thread> threads = new ArrayList<>();
+		for(int t = 0; t < THREADS; t++) {
+			Random random = new Random(t);
+			threads.add(Thread.ofPlatform().start(() -> {
+				try {
+					for(int i = 0; i < OPERATIONS; i++) {
+						Entry entry = new Entry("n" + random.nextInt(NAMES), random.nextInt(IDS));
+						switch(random.nextInt(5)) {
+							case 0, 1 -> index.put(entry);
+							case 2 -> index.remove(entry.name());
+							case 3 -> index.removeValue(entry);
+							default -> {
+								// Reading while the others write never fails
+								for(Entry value : index.values()) assertNotNull(value);
+								index.get(entry.id());
+							}
+						}
+					}
+				} catch(Throwable e) {
+					errors.add(e);
+				}
+			}));
+		}
+		for(Thread thread : threads) thread.join();
+		assertEquals(List.of(), List.copyOf(errors));
+
+		// Every member holds at least a slot and every slot holds a member. Entries compare by value,
+		// equal ones put by different threads are the same member
+		for(Entry value : index.values())
+			assertTrue(value.equals(index.get(value.name())) || value.equals(index.get(value.id())), value::toString);
+		IntStream.range(0, NAMES).mapToObj(n -> index.get("n" + n))
+				.filter(v -> v != null).forEach(v -> assertTrue(index.containsValue(v)));
+		IntStream.range(0, IDS).mapToObj(index::get)
+				.filter(v -> v != null).forEach(v -> assertTrue(index.containsValue(v)));
+		assertEquals(index.size(), index.values().size());
+	}
+
+	record Entry(String name, int id) {}
+}
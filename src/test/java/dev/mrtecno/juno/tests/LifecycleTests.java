@@ -0,0 +1,535 @@
+package dev.mrtecno.juno.tests;
+
+import dev.mrtecno.juno.loaders.Fingerprint;
+import dev.mrtecno.juno.loaders.LocalLoader;
+import dev.mrtecno.juno.plugin.Lockfile;
+import dev.mrtecno.juno.plugin.Plugin;
+import dev.mrtecno.juno.plugin.PluginManager;
+import dev.mrtecno.juno.plugin.PluginManifest;
+import dev.mrtecno.juno.plugin.PluginState;
+import dev.mrtecno.juno.plugin.identifier.PluginIdentifier;
+import dev.mrtecno.juno.plugin.identifier.PluginWildcard;
+import dev.mrtecno.juno.plugin.identifier.Version;
+import dev.mrtecno.juno.service.ServiceManager;
+import dev.mrtecno.juno.plugin.graph.GraphExecutor;
+import dev.mrtecno.juno.plugin.graph.PluginGraph.PluginNode;
+import dev.mrtecno.juno.plugin.graph.TraversalException;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LifecycleTests {
+	private static final int CHAINS = 6, DEPTH = 4, THREADS = 16, OPERATIONS = 400;
+
+	@Test
+	public void testConcurrentLifecycle() throws InterruptedException {
+		MemoryLoader loader = new MemoryLoader();
+		PluginManager manager = new PluginManager(loader);
+
+		for(int c = 0; c < CHAINS; c++)
+			for(int d = 0; d < DEPTH; d++)
+				loader.add(d == 0
+						? GraphingTests.manifest("C" + c + "_" + d, "1.0.0")
+						: GraphingTests.manifest("C" + c + "_" + d, "1.0.0", "C" + c + "_" + (d - 1)));
+
+		List<PluginManifest> manifests = List.copyOf(loader.manifests());
+		Set<String> violations = ConcurrentHashMap.newKeySet();
+		loader.violations = violations;
+
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for(int t = 0; t < THREADS; t++)
+			threads.add(Thread.ofPlatform().start(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				try {
+					start.await();
+				} catch(InterruptedException e) {
+					return;
+				}
+
+				for(int i = 0; i < OPERATIONS; i++) {
+					PluginManifest manifest = manifests.get(random.nextInt(manifests.size()));
+					try {
+						switch(random.nextInt(4)) {
+							case 0 -> manager.load(manifest);
+							case 1 -> manager.get(manifest).ifPresent(manager::enable);
+							case 2 -> manager.get(manifest).ifPresent(manager::disable);
+							case 3 -> manager.get(manifest).ifPresent(manager::unload);
+						}
+					} catch(IllegalArgumentException e) {
+						// Lost a race with an unload, the plugin was gone by the time we asked
+						if(!e.getMessage().startsWith("Plugin not loaded")) violations.add(e.toString());
+					} catch(Throwable e) {
+						violations.add(e.toString());
+					}
+				}
+			}));
+
+		start.countDown();
+		for(Thread thread : threads) thread.join();
+
+		assertEquals(Set.of(), violations);
+
+		// Whatever is left has to be settled and agree with the enabled set
+		for(Plugin pl : manager.plugins()) {
+			assertTrue(pl.state() == PluginState.LOADED || pl.state() == PluginState.ENABLED);
+			assertEquals(pl.state() == PluginState.ENABLED, manager.isEnabled(pl));
+		}
+	}
+
+	@Test
+	public void testSharedLoad() throws InterruptedException {
+		MemoryLoader loader = new MemoryLoader();
+		PluginManager manager = new PluginManager(loader);
+		PluginManifest manifest = loader.add(GraphingTests.manifest("Shared", "1.0.0"));
+
+		// Everyone asking at once gets the same instance, the loader is only hit once
+		Set<Plugin> loaded = ConcurrentHashMap.newKeySet();
+		List<Thread> threads = new ArrayList<>();
+		for(int t = 0; t < THREADS; t++)
+			threads.add(Thread.ofPlatform().start(() -> loaded.add(manager.load(manifest))));
+		for(Thread thread : threads) thread.join();
+
+		assertEquals(1, loaded.size());
+		assertEquals(1, loader.instances().get());
+	}
+
+	@Test
+	public void testAsyncTimeouts() throws InterruptedException {
+		MemoryLoader loader = new MemoryLoader();
+		PluginManager manager = new PluginManager(loader);
+		PluginManifest hung = loader.add(GraphingTests.manifest("Hung", "1.0.0"));
+		loader.add(GraphingTests.manifest("Above", "1.0.0", "Hung"));
+		PluginManifest free = loader.add(GraphingTests.manifest("Free", "1.0.0"));
+		loader.hanging().add("Hung");
+
+		manager.loadAsync(loader.manifests().get(1)).join();
+		manager.load(free);
+		manager.executor().timeout(Duration.ofMillis(200));
+
+		// Only the hung plugin and what sits on it fail, the rest comes up
+		ExecutionException e = assertThrows(ExecutionException.class, () -> manager.enableAsync().get(5, TimeUnit.SECONDS));
+		TraversalException traversal = assertInstanceOf(TraversalException.class, e.getCause());
+		assertEquals(1, traversal.failures().size());
+		assertInstanceOf(TimeoutException.class, traversal.failures().values().iterator().next());
+		assertEquals(1, traversal.skipped().size());
+
+		assertTrue(manager.isEnabled(manager.get(free).orElseThrow()));
+		assertFalse(manager.isEnabled(manager.get("Above").orElseThrow()));
+		assertTrue(loader.interrupted().tryAcquire(5, TimeUnit.SECONDS));
+
+		// Without a limit per plugin the whole call still gives up, and the plugin is interrupted again
+		manager.executor().timeout(null);
+		Plugin pl = manager.get(hung).orElseThrow();
+		e = assertThrows(ExecutionException.class, () -> manager.enableAsync(pl, Duration.ofMillis(200)).get(5, TimeUnit.SECONDS));
+		assertInstanceOf(TimeoutException.class, e.getCause());
+		assertTrue(loader.interrupted().tryAcquire(5, TimeUnit.SECONDS));
+		assertFalse(manager.isEnabled(pl));
+	}
+
+	@Test
+	public void testStubbornTimeout() throws InterruptedException {
+		MemoryLoader loader = new MemoryLoader();
+		PluginManager manager = new PluginManager(loader);
+		loader.add(GraphingTests.manifest("Stuck", "1.0.0"));
+		loader.add(GraphingTests.manifest("First", "1.0.0"));
+		loader.add(GraphingTests.manifest("Second", "1.0.0"));
+		loader.add(GraphingTests.manifest("Third", "1.0.0"));
+		loader.stubborn().add("Stuck");
+		manager.load();
+
+		// A single permit, the stuck plugin never gives its worker back but must give the permit back
+		manager.executor(new GraphExecutor(1));
+		manager.executor().timeout(Duration.ofMillis(200));
+
+		try {
+			ExecutionException e = assertThrows(ExecutionException.class, () -> manager.enableAsync().get(5, TimeUnit.SECONDS));
+			TraversalException traversal = assertInstanceOf(TraversalException.class, e.getCause());
+			assertEquals(Set.of("Stuck"), traversal.failures().keySet().stream()
+					.map(n -> ((PluginNode) n).name()).collect(Collectors.toSet()));
+			for(String name : List.of("First", "Second", "Third"))
+				assertTrue(manager.isEnabled(name), name);
+		} finally {
+			loader.released().countDown();
+		}
+
+		assertTrue(loader.interrupted().tryAcquire(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testLifecycleEvents() throws IOException {
+		MemoryLoader loader = new MemoryLoader();
+		PluginManager manager = new PluginManager(loader);
+		loader.add(GraphingTests.manifest("Base", "1.0.0"));
+		PluginManifest top = loader.add(GraphingTests.manifest("Top", "2.1.0", "Base"));
+
+		Path dump = Files.createTempFile("juno", ".jfr");
+		try(Recording recording = new Recording()) {
+			recording.enable("dev.mrtecno.juno.Lifecycle");
+			recording.enable("dev.mrtecno.juno.Discovery");
+			recording.enable("dev.mrtecno.juno.Resolution");
+			recording.start();
+
+			Plugin pl = manager.load(top);
+			manager.enable(pl);
+			manager.disable(pl);
+			manager.unload(pl);
+
+			recording.stop();
+			recording.dump(dump);
+		}
+
+		try {
+			List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+			Set<String> lifecycle = events.stream().filter(e -> e.getEventType().getName().equals("dev.mrtecno.juno.Lifecycle"))
+					.map(e -> e.getString("plugin") + ":" + e.getString("version") + " " + e.getString("phase"))
+					.collect(Collectors.toSet());
+
+			assertTrue(lifecycle.containsAll(Set.of("Base:1.0.0 load", "Top:2.1.0 load", "Base:1.0.0 enable",
+					"Top:2.1.0 enable", "Top:2.1.0 disable", "Top:2.1.0 unload")), lifecycle.toString());
+			assertTrue(events.stream().anyMatch(e -> e.getEventType().getName().equals("dev.mrtecno.juno.Discovery")));
+			assertTrue(events.stream().anyMatch(e -> e.getEventType().getName().equals("dev.mrtecno.juno.Resolution")
+					&& "Base".equals(e.getString("plugin")) && e.getInt("candidates") == 1));
+		} finally {
+			Files.delete(dump);
+		}
+	}
+
+	@Test
+	public void testLockfile() throws IOException {
+		Path dir = Files.createTempDirectory("juno");
+		Lockfile lockfile = new Lockfile(dir.resolve(Lockfile.FILE_NAME).toFile());
+
+		List<PluginManifest> manifests = List.of(GraphingTests.manifest("Base", "1.0.0"),
+				GraphingTests.manifest("Base", "2.0.0"), GraphingTests.manifest("Mid", "1.0.0", "Base:^1.0.0"),
+				GraphingTests.manifest("Top", "1.0.0", "Mid", "Base"));
+
+		try {
+			PluginManager first = lockedManager(lockfile, manifests);
+			first.load();
+			Lockfile.Plan plan = lockfile.read().orElseThrow();
+			assertEquals(List.of(List.of("Base"), List.of("Mid"), List.of("Top")), plan.layers());
+
+			// Nothing changed, so the stored plan is used as is and nothing is selected again
+			List<RecordedEvent> events = new ArrayList<>();
+			PluginManager second = lockedManager(lockfile, manifests);
+			recorded(events, "dev.mrtecno.juno.Resolution", second::load);
+
+			assertEquals(List.of(), events);
+			assertEquals(first.plugins().stream().map(Plugin::id).collect(Collectors.toSet()),
+					second.plugins().stream().map(Plugin::id).collect(Collectors.toSet()));
+			assertEquals(plan.selection().get("Base").version(),
+					second.dependencyGraph().pluginNames().get("Base").selectedVersion());
+			assertEquals(plan, lockfile.read().orElseThrow());
+
+			second.enable();
+			assertTrue(second.plugins().stream().allMatch(second::isEnabled));
+
+			// A new plugin shows up, everything is resolved again and the lockfile follows
+			List<PluginManifest> changed = new ArrayList<>(manifests);
+			changed.add(GraphingTests.manifest("Extra", "1.0.0", "Top"));
+			PluginManager third = lockedManager(lockfile, changed);
+			recorded(events, "dev.mrtecno.juno.Resolution", third::load);
+
+			assertFalse(events.isEmpty());
+			assertTrue(third.isLoaded("Extra"));
+			assertEquals(4, lockfile.read().orElseThrow().layers().size());
+		} finally {
+			lockfile.delete();
+			Files.delete(dir);
+		}
+	}
+
+	@Test
+	public void testCatalogViews() {
+		MemoryLoader loader = new MemoryLoader();
+		PluginManager manager = new PluginManager(loader);
+		PluginManifest first = loader.add(GraphingTests.manifest("Base", "1.0.0"));
+		PluginManifest second = loader.add(GraphingTests.manifest("Base", "2.0.0"));
+		PluginManifest top = loader.add(GraphingTests.manifest("Top", "1.0.0", "Base"));
+
+		manager.discover(first);
+		NavigableMap<Version, PluginManifest> versions = manager.knownVersions("Base");
+		Map<String, NavigableMap<Version, PluginManifest>> discovered = manager.discoveredPlugins();
+
+		// Nothing gets in or out of the catalog from outside
+		assertThrows(UnsupportedOperationException.class, () -> versions.put(second.version(), second));
+		assertThrows(UnsupportedOperationException.class, () -> discovered.get("Base").clear());
+		assertThrows(UnsupportedOperationException.class, () -> discovered.remove("Base"));
+		assertThrows(UnsupportedOperationException.class, () -> versions.pollFirstEntry());
+		assertEquals(List.of(first), List.copyOf(versions.values()));
+
+		// The views still follow discovery
+		manager.discover(second);
+		manager.discover(top);
+		assertEquals(List.of(first, second), List.copyOf(versions.values()));
+		assertEquals(List.of(first, second), List.copyOf(discovered.get("Base").values()));
+		assertEquals(Set.of("Base", "Top"), manager.discoveredPlugins().keySet());
+
+		// And unloading
+		manager.load();
+		manager.unload(manager.get("Top").orElseThrow());
+		assertFalse(manager.discoveredPlugins().containsKey("Top"));
+		assertTrue(manager.knownVersions("Top").isEmpty());
+		assertEquals(Set.of("Base"), manager.discoveredPlugins().keySet());
+
+		manager.unload(manager.get("Base").orElseThrow());
+		assertEquals(List.of(first), List.copyOf(versions.values()));
+	}
+
+	@Test
+	public void testLazyActivation() {
+		MemoryLoader loader = new MemoryLoader();
+		PluginManager manager = new PluginManager(loader);
+		loader.add(GraphingTests.manifest("Base", "1.0.0"));
+		loader.add(GraphingTests.manifest("Mid", "1.0.0", "Base"));
+		loader.add(GraphingTests.manifest("Top", "1.0.0", "Mid"));
+		loader.add(new PluginManifest(null, CheckedPlugin.class.getName(),
+				new PluginIdentifier("Service", Version.parseVersion("1.0.0")), new PluginWildcard[0]));
+
+		ServiceManager services = new ServiceManager();
+		services.provider(manager::service);
+
+		// Everything is known and resolved, nothing is instantiated
+		manager.lazy(true);
+		manager.startup();
+		assertEquals(0, loader.instances().get());
+		assertEquals(4, manager.handles().size());
+		assertFalse(manager.handle("Top").orElseThrow().active());
+
+		// Looked up as a service by its class
+		Plugin service = services.get(CheckedPlugin.class).orElseThrow();
+		assertEquals("Service", service.manifest().name());
+		assertTrue(manager.isEnabled(service));
+		assertEquals(1, loader.instances().get());
+
+		// Asking for one brings up its dependency chain with it, and nothing else
+		Plugin mid = manager.get("Mid").orElseThrow();
+		assertTrue(manager.isEnabled(mid));
+		assertTrue(manager.handle("Base").orElseThrow().active());
+		assertTrue(manager.handle("Top").orElseThrow().peek().isEmpty());
+		assertEquals(3, loader.instances().get());
+
+		Plugin top = manager.handle("Top").orElseThrow().get(CheckedPlugin.class);
+		assertTrue(manager.isEnabled(top));
+		assertSame(top, manager.handle("Top").orElseThrow().get());
+		assertEquals(4, loader.instances().get());
+		assertEquals(Set.of(), loader.violations);
+	}
+
+	@Test
+	public void testBatchLoad() throws IOException {
+		MemoryLoader loader = new MemoryLoader();
+		// Dependents show up before what they depend on, like in a directory listing
+		for(int i = 49; i > 0; i--) loader.add(GraphingTests.manifest("P" + i, "1.0.0", "P" + (i - 1)));
+		loader.add(GraphingTests.manifest("P0", "1.0.0", "Base:^1.0.0"));
+		loader.add(GraphingTests.manifest("Base", "1.0.0"));
+		loader.add(GraphingTests.manifest("Base", "2.0.0"));
+
+		// Everything is selected once, in a single pass over the whole graph
+		List<RecordedEvent> events = new ArrayList<>();
+		PluginManager manager = new PluginManager(loader);
+		recorded(events, "dev.mrtecno.juno.Resolution", manager::load);
+
+		assertEquals(51, events.size());
+		assertEquals(51, manager.plugins().size());
+		assertEquals(51, loader.instances().get());
+		assertEquals(Version.parseVersion("1.0.0"), manager.get("Base").orElseThrow().manifest().version());
+
+		// Already loaded ones are handed back, dependencies found along the way are loaded too
+		PluginManifest extra = loader.add(GraphingTests.manifest("Extra", "1.0.0", "Dep", "P49"));
+		PluginManifest dep = loader.add(GraphingTests.manifest("Dep", "1.0.0"));
+		List<Plugin> loaded = manager.loadAll(List.of(extra, manager.get("P49").orElseThrow().manifest(), dep));
+		assertEquals(List.of("Extra", "P49", "Dep"), loaded.stream().map(p -> p.manifest().name()).toList());
+		assertEquals(53, loader.instances().get());
+
+		PluginManifest broken = loader.add(GraphingTests.manifest("Broken", "1.0.0", "Missing"));
+		assertThrows(IllegalArgumentException.class, () -> manager.loadAll(List.of(broken)));
+		assertFalse(manager.isLoaded("Broken"));
+	}
+
+	@Test
+	public void testParallelLoad() {
+		MemoryLoader loader = new MemoryLoader();
+		loader.add(GraphingTests.manifest("Base", "1.0.0"));
+		loader.add(GraphingTests.manifest("Left", "1.0.0", "Base"));
+		loader.add(GraphingTests.manifest("Right", "1.0.0", "Base"));
+		loader.add(GraphingTests.manifest("Top", "1.0.0", "Left", "Right"));
+		loader.add(GraphingTests.manifest("Alone", "1.0.0"));
+
+		PluginManager manager = new PluginManager(loader);
+		manager.executor(GraphExecutor.unbounded());
+		manager.parallelLoad(true);
+
+		// Nothing of a failed batch stays registered, it's all still known for the next try
+		loader.failing().add("Right");
+		TraversalException e = assertThrows(TraversalException.class, manager::load);
+		assertEquals(1, e.failures().size());
+		assertTrue(manager.plugins().isEmpty());
+		assertTrue(manager.isKnown("Top"));
+
+		loader.failing().clear();
+		manager.load();
+		assertEquals(5, manager.plugins().size());
+
+		manager.enable();
+		assertTrue(manager.plugins().stream().allMatch(manager::isEnabled));
+		assertEquals(Set.of(), loader.violations);
+	}
+
+	private static PluginManager lockedManager(Lockfile lockfile, List<PluginManifest> manifests) {
+		MemoryLoader loader = new MemoryLoader();
+		manifests.forEach(loader::add);
+
+		PluginManager manager = new PluginManager(loader);
+		manager.lockfile(lockfile);
+		return manager;
+	}
+
+	private static void recorded(List<RecordedEvent> events, String name, Runnable action) throws IOException {
+		Path dump = Files.createTempFile("juno", ".jfr");
+		try(Recording recording = new Recording()) {
+			recording.enable(name);
+			recording.start();
+			action.run();
+			recording.stop();
+			recording.dump(dump);
+
+			// Our own events are on by default, only the one asked for is kept
+			events.clear();
+			RecordingFile.readAllEvents(dump).stream()
+					.filter(e -> e.getEventType().getName().equals(name)).forEach(events::add);
+		} finally {
+			Files.delete(dump);
+		}
+	}
+
+	// Hands out plugins that check their own dependencies while they're enabled and disabled
+	static class MemoryLoader implements LocalLoader {
+		private final List<PluginManifest> manifests = new ArrayList<>();
+		private final AtomicInteger instances = new AtomicInteger();
+		private Set<String> violations = ConcurrentHashMap.newKeySet();
+		private final Set<String> hanging = ConcurrentHashMap.newKeySet();
+		private final Set<String> failing = ConcurrentHashMap.newKeySet();
+		private final Set<String> stubborn = ConcurrentHashMap.newKeySet();
+		private final CountDownLatch released = new CountDownLatch(1);
+		private final Semaphore interrupted = new Semaphore(0);
+
+		List<PluginManifest> manifests() {
+			return manifests;
+		}
+
+		PluginManifest add(PluginManifest manifest) {
+			PluginManifest own = new PluginManifest(this, manifest.entrypoint(), manifest.id(), manifest.dependencies());
+			manifests.add(own);
+			return own;
+		}
+
+		AtomicInteger instances() {
+			return instances;
+		}
+
+		Set<String> hanging() {
+			return hanging;
+		}
+
+		Set<String> failing() {
+			return failing;
+		}
+
+		// Hang like the others but shrug off interrupts, until released
+		Set<String> stubborn() {
+			return stubborn;
+		}
+
+		CountDownLatch released() {
+			return released;
+		}
+
+		// A permit for every time a hanging plugin was woken up
+		Semaphore interrupted() {
+			return interrupted;
+		}
+
+		@Override
+		public void initialize(ClassLoader parent) {}
+
+		@Override
+		public Collection<PluginManifest> availablePlugins() {
+			return manifests;
+		}
+
+		@Override
+		public Plugin load(PluginManifest manifest) {
+			if(failing.contains(manifest.name())) throw new IllegalStateException(manifest.name() + " failed to load");
+
+			instances.incrementAndGet();
+			return new CheckedPlugin(manifest, violations, hanging.contains(manifest.name())
+					|| stubborn.contains(manifest.name()) ? this : null);
+		}
+
+		@Override
+		public void unload(Plugin pl) {}
+
+		@Override
+		public Optional<String> fingerprint() {
+			return Optional.of(Fingerprint.of(manifests.stream().map(m -> m.id().toString()).sorted().toList()));
+		}
+	}
+
+	static class CheckedPlugin extends Plugin {
+		private final Set<String> violations;
+		private final AtomicBoolean running = new AtomicBoolean();
+		private final MemoryLoader hangs;
+
+		CheckedPlugin(PluginManifest manifest, Set<String> violations, MemoryLoader hangs) {
+			super(manifest);
+			this.violations = violations;
+			this.hangs = hangs;
+		}
+
+		@Override
+		public void enable() {
+			if(hangs != null && hangs.stubborn.contains(manifest().name())) {
+				boolean interrupted = false;
+				while(hangs.released.getCount() > 0) try {
+					hangs.released.await();
+				} catch(InterruptedException e) {
+					interrupted = true;
+				}
+				if(interrupted) hangs.interrupted.release();
+			} else if(hangs != null) try {
+				Thread.sleep(Long.MAX_VALUE);
+			} catch(InterruptedException e) {
+				hangs.interrupted.release();
+				throw new IllegalStateException("Interrupted", e);
+			}
+
+			if(!running.compareAndSet(false, true))
+				violations.add(manifest().name() + " enabled twice");
+
+			Arrays.stream(manifest().dependencies()).forEach(d -> manager().get(d.name())
+					.filter(p -> !manager().isEnabled(p))
+					.ifPresent(p -> violations.add(manifest().name() + " enabled before " + p.manifest().name())));
+		}
+
+		@Override
+		public void disable() {
+			if(!running.compareAndSet(true, false))
+				violations.add(manifest().name() + " disabled while not enabled");
+		}
+	}
+}
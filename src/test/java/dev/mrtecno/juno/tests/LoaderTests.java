@@ -0,0 +1,534 @@
+package dev.mrtecno.juno.tests;
+
+import dev.mrtecno.juno.loaders.CentralDirectoryReader;
+import dev.mrtecno.juno.loaders.FileLoader;
+import dev.mrtecno.juno.loaders.Fingerprint;
+import dev.mrtecno.juno.loaders.LoaderTracker;
+import dev.mrtecno.juno.loaders.ManifestCache;
+import dev.mrtecno.juno.loaders.PluginClassLoader;
+import dev.mrtecno.juno.plugin.Plugin;
+import dev.mrtecno.juno.plugin.LoaderChanges;
+import dev.mrtecno.juno.plugin.PluginManager;
+import dev.mrtecno.juno.plugin.PluginManifest;
+import dev.mrtecno.juno.plugin.PluginState;
+import dev.mrtecno.juno.plugin.identifier.PluginIdentifier;
+import dev.mrtecno.juno.plugin.identifier.Version;
+import org.json.simple.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoaderTests {
+	// Deleted along with everything compiled in it once each test is done
+	@TempDir
+	Path temp;
+
+	@Test
+	public void testDependencyClassLoaders() throws Exception {
+		Path plugins = compilePlugins();
+
+		FileLoader loader = new FileLoader(plugins.toFile());
+		loader.cacheManifests(false);
+		PluginManager manager = new PluginManager(loader);
+		manager.initialize(getClass().getClassLoader());
+		manager.load();
+
+		Plugin app = manager.get("App").orElseThrow();
+		Plugin core = manager.get("Core").orElseThrow();
+		Object greeter = app.getClass().getField("greeter").get(app);
+
+		assertInstanceOf(PluginClassLoader.class, app.getClass().getClassLoader());
+		assertSame(core.getClass().getClassLoader(), greeter.getClass().getClassLoader());
+		assertEquals(Set.of("core", "core.api"),
+				((PluginClassLoader) core.getClass().getClassLoader()).packages());
+
+		// Only what the plugin depends on is visible, not the other way around
+		assertThrows(ClassNotFoundException.class, () -> core.getClass().getClassLoader().loadClass("app.AppPlugin"));
+
+		// Both readers list the same entries
+		loader.mappedReader(true);
+		List<String> mapped = loader.entryNames(plugins.resolve("app.jar").toFile());
+		loader.mappedReader(false);
+		assertEquals(mapped, loader.entryNames(plugins.resolve("app.jar").toFile()));
+		assertEquals(Set.of("app"), PluginClassLoader.packagesOf(mapped));
+	}
+
+	@Test
+	public void testLoaderReclamation() throws Exception {
+		FileLoader loader = new FileLoader(compilePlugins().toFile());
+		loader.cacheManifests(false);
+		PluginManager manager = new PluginManager(loader);
+		manager.initialize(getClass().getClassLoader());
+		manager.load();
+
+		PluginIdentifier app = manager.get("App").orElseThrow().id();
+		PluginIdentifier core = manager.get("Core").orElseThrow().id();
+
+		// A thread left behind by the plugin keeps its loader around
+		CountDownLatch release = new CountDownLatch(1);
+		Thread leftover = Thread.ofPlatform().name("leftover").unstarted(() -> {
+			try {
+				release.await();
+			} catch(InterruptedException ignored) {}
+		});
+		leftover.setContextClassLoader(manager.get("Core").orElseThrow().getClass().getClassLoader());
+		leftover.start();
+
+		loader.loaderTracker().threshold(1);
+		manager.unload(manager.get("Core").orElseThrow());
+		assertFalse(manager.isLoaded("App"));
+		assertEquals(Set.of(app, core), loader.loaderTracker().pending());
+
+		// Only the test asks for collections, unloading no longer does
+		for(int i = 0; i < 50 && loader.loaderTracker().pending().size() > 1; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		loader.loaderTracker().check();
+		assertEquals(Set.of(core), loader.loaderTracker().pending());
+		assertEquals(Set.of(core), loader.loaderTracker().leaks());
+
+		release.countDown();
+		leftover.join();
+		leftover.setContextClassLoader(null);
+		for(int i = 0; i < 50 && !loader.loaderTracker().pending().isEmpty(); i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertEquals(Set.of(), loader.loaderTracker().pending());
+	}
+
+	@Test
+	public void testLazyRemoval() throws Exception {
+		Path plugins = compilePlugins();
+		File core = plugins.resolve("core.jar").toFile();
+		byte[] content = Files.readAllBytes(core.toPath());
+
+		FileLoader loader = new FileLoader(plugins.toFile());
+		PluginManager manager = new PluginManager(loader);
+		manager.lazy(true);
+		manager.initialize(getClass().getClassLoader());
+		manager.load();
+
+		// App is only discovered, it still names Core when Core's jar goes away
+		assertTrue(core.delete());
+		LoaderChanges removed = loader.rescan(List.of(core));
+		assertEquals(List.of("Core"), removed.removed().stream().map(PluginManifest::name).toList());
+		manager.apply(removed);
+		assertFalse(manager.isKnown("Core"));
+		assertTrue(manager.isKnown("App"));
+
+		// Back again, App comes up on top of it
+		Files.write(core.toPath(), content);
+		LoaderChanges added = loader.rescan(List.of(core));
+		assertEquals(List.of("Core"), added.added().stream().map(PluginManifest::name).toList());
+		manager.apply(added);
+		Plugin app = manager.get("App").orElseThrow();
+		assertTrue(manager.isEnabled(app));
+		assertTrue(manager.isEnabled(manager.get("Core").orElseThrow()));
+	}
+
+	@Test
+	public void testWatchedChanges() throws Exception {
+		Path plugins = compilePlugins();
+		File app = plugins.resolve("app.jar").toFile();
+
+		FileLoader loader = new FileLoader(plugins.toFile());
+		loader.debounce(Duration.ofMillis(50));
+		PluginManager manager = new PluginManager(loader);
+		manager.initialize(getClass().getClassLoader());
+		manager.load();
+		manager.enable();
+		Plugin before = manager.get("App").orElseThrow();
+
+		loader.watch(manager::apply);
+		try {
+			// Rewritten in place, it's unloaded and loaded again from the new jar and stays enabled
+			byte[] content = Files.readAllBytes(app.toPath());
+			Files.write(app.toPath(), content);
+			assertTrue(app.setLastModified(app.lastModified() + 2000));
+			await(() -> manager.get("App").filter(p -> p != before && manager.isEnabled(p)).isPresent());
+			assertEquals(PluginState.UNLOADED, before.state());
+
+			// Deleted, it's gone and its dependency stays
+			assertTrue(app.delete());
+			await(() -> !manager.isKnown("App"));
+			assertTrue(manager.isEnabled("Core"));
+		} finally {
+			loader.stopWatching();
+		}
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while(!condition.getAsBoolean()) {
+			assertTrue(System.nanoTime() < deadline, "Timed out waiting for the watcher");
+			Thread.sleep(20);
+		}
+	}
+
+	@Test
+	public void testFingerprintCache() throws Exception {
+		Path plugins = compilePlugins();
+		File core = plugins.resolve("core.jar").toFile();
+
+		FileLoader loader = new FileLoader(plugins.toFile());
+		loader.initialize(getClass().getClassLoader());
+		String fingerprint = loader.fingerprint().orElseThrow();
+		assertEquals(Set.of(core.getAbsolutePath(), plugins.resolve("app.jar").toFile().getAbsolutePath()),
+				loader.manifestCache().hashes().keySet());
+
+		// Hashes survive restarts, an unchanged jar is never read again
+		ManifestCache cache = new ManifestCache(plugins.resolve(ManifestCache.FILE_NAME).toFile());
+		cache.read();
+		AtomicInteger hashed = new AtomicInteger();
+		Function<File, String> hasher = f -> {
+			hashed.incrementAndGet();
+			return Fingerprint.of(f);
+		};
+		assertEquals(Fingerprint.of(core), cache.hash(core, hasher));
+		assertEquals(0, hashed.get());
+
+		// A jar replaced in place is hashed again
+		Files.write(core.toPath(), new byte[] { 0 }, StandardOpenOption.APPEND);
+		assertEquals(Fingerprint.of(core), cache.hash(core, hasher));
+		assertEquals(1, hashed.get());
+		assertNotEquals(fingerprint, loader.fingerprint().orElseThrow());
+	}
+
+	@Test
+	public void testTruncatedJars() throws Exception {
+		Path plugins = compilePlugins();
+		byte[] content = Files.readAllBytes(plugins.resolve("app.jar"));
+		FileLoader loader = new FileLoader(plugins.toFile());
+
+		// Cut short, the mapped reader gives up the same way JarFile does
+		Path truncated = plugins.resolve("truncated.jar");
+		Files.write(truncated, Arrays.copyOf(content, content.length / 2));
+		assertThrows(ZipException.class, () -> CentralDirectoryReader.entryNames(truncated));
+		assertThrows(ZipException.class, () -> CentralDirectoryReader.readEntry(truncated, "manifest.json"));
+		assertThrows(IllegalArgumentException.class, () -> loader.entryNames(truncated.toFile()));
+
+		// A name running past the central directory
+		Path name = plugins.resolve("name.jar");
+		Files.write(name, corrupt(content, "manifest.json", 28, (short) -1));
+		assertThrows(ZipException.class, () -> CentralDirectoryReader.entryNames(name));
+		assertThrows(ZipException.class, () -> CentralDirectoryReader.readEntry(name, "manifest.json"));
+
+		// Data pointing past the end of the file
+		Path data = plugins.resolve("data.jar");
+		Files.write(data, corrupt(content, "manifest.json", 42, content.length - 1));
+		assertEquals(CentralDirectoryReader.entryNames(plugins.resolve("app.jar")), CentralDirectoryReader.entryNames(data));
+		assertThrows(ZipException.class, () -> CentralDirectoryReader.readEntry(data, "manifest.json"));
+
+		// Stored entries are copied out, the file can be cut short once they're read
+		String json = """
+				{"name": "Stored", "version": "1.0.0", "entrypoint": "stored.Plugin", "dependencies": []}""";
+		Path stored = plugins.resolve("stored.jar");
+		try(JarOutputStream out = new JarOutputStream(Files.newOutputStream(stored))) {
+			byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+			CRC32 crc = new CRC32();
+			crc.update(bytes);
+
+			JarEntry entry = new JarEntry("manifest.json");
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(bytes.length);
+			entry.setCrc(crc.getValue());
+			out.putNextEntry(entry);
+			out.write(bytes);
+			out.closeEntry();
+		}
+
+		ByteBuffer manifest = CentralDirectoryReader.readEntry(stored, "manifest.json").orElseThrow();
+		Files.write(stored, new byte[0]);
+		assertEquals(json, StandardCharsets.UTF_8.decode(manifest).toString());
+	}
+
+	// Overwrites a field of the named entry's central directory header
+	private static byte[] corrupt(byte[] jar, String entry, int field, Number value) {
+		ByteBuffer buffer = ByteBuffer.wrap(jar.clone()).order(ByteOrder.LITTLE_ENDIAN);
+		int pos = buffer.getInt(jar.length - 6), end = pos + buffer.getInt(jar.length - 10);
+
+		for(; pos < end; pos += 46 + buffer.getShort(pos + 28) + buffer.getShort(pos + 30) + buffer.getShort(pos + 32)) {
+			byte[] name = new byte[buffer.getShort(pos + 28)];
+			buffer.get(pos + 46, name);
+			if(!new String(name, StandardCharsets.UTF_8).equals(entry)) continue;
+
+			if(value instanceof Short s) buffer.putShort(pos + field, s);
+			else buffer.putInt(pos + field, value.intValue());
+			return buffer.array();
+		}
+
+		throw new IllegalArgumentException("No entry " + entry);
+	}
+
+	@Test
+	public void testManifestCache() throws Exception {
+		Path plugins = compilePlugins();
+		File core = plugins.resolve("core.jar").toFile();
+		File cached = plugins.resolve(ManifestCache.FILE_NAME).toFile();
+
+		FileLoader loader = new FileLoader(plugins.toFile());
+		PluginManager first = new PluginManager(loader);
+		first.initialize(getClass().getClassLoader());
+		first.load();
+		assertEquals(2, loader.manifestCache().misses().get());
+		loader.manifestCache().write();
+
+		// Unchanged jars come straight from the file
+		ManifestCache cache = new ManifestCache(cached);
+		cache.read();
+		AtomicInteger read = new AtomicInteger();
+		Function<File, Optional<JSONObject>> reader = f -> {
+			read.incrementAndGet();
+			return loader.readManifest(f);
+		};
+		assertEquals("Core", cache.get(core, reader).orElseThrow().get("name"));
+		assertEquals(0, read.get());
+		assertEquals(1, cache.hits().get());
+
+		// Touching the jar is enough to read it again, so is changing its size
+		assertTrue(core.setLastModified(core.lastModified() + 10_000));
+		assertEquals("Core", cache.get(core, reader).orElseThrow().get("name"));
+		assertEquals(1, read.get());
+
+		Files.write(core.toPath(), new byte[] { 0 }, StandardOpenOption.APPEND);
+		assertEquals("Core", cache.get(core, reader).orElseThrow().get("name"));
+		assertEquals(2, read.get());
+		assertEquals(2, cache.misses().get());
+
+		// Broken caches are dropped, everything is scanned again
+		for(String broken : List.of("{\"format\":1,\"entries\":", "{\"format\":1,\"entries\":[]}",
+				"{\"format\":1,\"entries\":{\"" + core.getAbsolutePath().replace("\\", "\\\\") + "\":{}}}")) {
+			Files.writeString(cached.toPath(), broken);
+
+			FileLoader rescan = new FileLoader(plugins.toFile());
+			PluginManager manager = new PluginManager(rescan);
+			manager.initialize(getClass().getClassLoader());
+			manager.load();
+
+			assertTrue(manager.isLoaded("App"));
+			assertEquals(0, rescan.manifestCache().hits().get());
+			assertEquals(2, rescan.manifestCache().entries().size());
+		}
+	}
+
+	@Test
+	public void testConcurrentCacheWrites() throws Exception {
+		Path dir = temp;
+		File file = dir.resolve(ManifestCache.FILE_NAME).toFile();
+		ManifestCache cache = new ManifestCache(file);
+
+		// Failed writes are only logged
+		List<String> warnings = new CopyOnWriteArrayList<>();
+		Handler handler = new Handler() {
+			@Override
+			public void publish(LogRecord record) {
+				if(record.getLevel() == Level.WARNING) warnings.add(record.getMessage());
+			}
+
+			@Override
+			public void flush() {}
+
+			@Override
+			public void close() {}
+		};
+
+		// Writers racing each other, every one still goes through whole and none of them is lost
+		Logger.getLogger("").addHandler(handler);
+		try {
+			List<Thread> writers = new ArrayList<>();
+			for(int t = 0; t < 4; t++) {
+				int thread = t;
+				writers.add(Thread.ofPlatform().start(() -> {
+					for(int i = 0; i < 250; i++) {
+						File jar = dir.resolve(thread + "-" + i + ".jar").toFile();
+						cache.hash(jar, File::getName);
+						cache.write();
+					}
+				}));
+			}
+			for(Thread writer : writers) writer.join();
+		} finally {
+			Logger.getLogger("").removeHandler(handler);
+		}
+		assertEquals(List.of(), warnings);
+
+		ManifestCache read = new ManifestCache(file);
+		read.read();
+		assertEquals(1000, read.hashes().size());
+		try(var files = Files.list(dir)) {
+			assertEquals(List.of(file.toPath()), files.toList());
+		}
+	}
+
+	@Test
+	public void testDuplicateJars() throws Exception {
+		Path plugins = compilePlugins();
+		for(int i = 0; i < 8; i++) Files.copy(plugins.resolve("core.jar"), plugins.resolve("copy" + i + ".jar"));
+
+		// However the scans finish, the first file in order keeps the id
+		for(boolean parallel : List.of(true, false, true)) {
+			FileLoader loader = new FileLoader(plugins.toFile());
+			loader.cacheManifests(false);
+			loader.parallelScan(parallel);
+			loader.discoverFiles();
+
+			assertEquals(2, loader.discoveredFiles().size());
+			assertEquals(List.of("app.jar", "copy0.jar"),
+					loader.discoveredFiles().values().stream().map(File::getName).sorted().toList());
+		}
+	}
+
+	@Test
+	public void testBrokenJars() throws Exception {
+		Path plugins = compilePlugins();
+		byte[] content = Files.readAllBytes(plugins.resolve("core.jar"));
+		Files.write(plugins.resolve("garbage.jar"), new byte[] { 1, 2, 3, 4 });
+		Files.write(plugins.resolve("half.jar"), Arrays.copyOf(content, content.length / 2));
+		try(JarOutputStream out = new JarOutputStream(Files.newOutputStream(plugins.resolve("json.jar")))) {
+			put(out, "manifest.json", "{\"name\": ".getBytes());
+		}
+
+		// Every broken jar is reported at once, the good ones don't hide them
+		for(boolean parallel : List.of(true, false)) {
+			FileLoader loader = new FileLoader(plugins.toFile());
+			loader.cacheManifests(false);
+			loader.parallelScan(parallel);
+
+			IllegalStateException e = assertThrows(IllegalStateException.class, loader::discoverFiles);
+			assertTrue(e.getMessage().startsWith("Could not scan 3 plugin files"), e.getMessage());
+			List<String> lines = e.getMessage().lines().skip(1).map(String::strip).toList();
+			assertEquals(3, lines.size());
+			assertTrue(lines.get(0).startsWith("- garbage.jar: "));
+			assertTrue(lines.get(1).startsWith("- half.jar: "));
+			assertTrue(lines.get(2).startsWith("- json.jar: "));
+			assertEquals(3, e.getSuppressed().length);
+		}
+	}
+
+	@Test
+	public void testMinorCollectionsDontLeak() throws IOException {
+		LoaderTracker tracker = new LoaderTracker();
+		tracker.threshold(1);
+		PluginIdentifier id = new PluginIdentifier("Young", Version.parseVersion("1.0.0"));
+
+		try(URLClassLoader loader = new URLClassLoader(new URL[0])) {
+			tracker.track(id, loader);
+
+			// Short lived garbage only fills the young generation, no collection there can unload a class
+			long start = collections(), deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while(collections() - start < 5 && System.nanoTime() < deadline) sink = new byte[4096];
+			assertTrue(collections() - start >= 5);
+
+			tracker.check();
+			assertEquals(Set.of(), tracker.leaks());
+			assertEquals(Set.of(id), tracker.pending());
+			Reference.reachabilityFence(loader);
+		}
+	}
+
+	private static volatile byte[] sink;
+
+	private static long collections() {
+		return ManagementFactory.getGarbageCollectorMXBeans().stream()
+				.mapToLong(GarbageCollectorMXBean::getCollectionCount).filter(c -> c > 0).sum();
+	}
+
+	private Path compilePlugins() throws Exception {
+		Path sources = Files.createDirectories(temp.resolve("sources"));
+		Path classes = Files.createDirectories(temp.resolve("classes"));
+		Path plugins = Files.createDirectories(temp.resolve("plugins"));
+
+		// Core's classes are only reachable through Core's jar, App has to get them from there
+		source(sources, "core/api/Greeter.java", """
+				package core.api;
+				public class Greeter { public String greet() { return "hello"; } }""");
+		source(sources, "core/CorePlugin.java", plugin("core", "CorePlugin", ""));
+		source(sources, "app/AppPlugin.java", plugin("app", "AppPlugin", """
+				public final core.api.Greeter greeter = new core.api.Greeter();"""));
+
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		String classpath = new File(Plugin.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+		try(var files = Files.walk(sources)) {
+			List<String> arguments = new ArrayList<>(List.of("-d", classes.toString(), "-cp", classpath));
+			files.filter(Files::isRegularFile).map(Path::toString).forEach(arguments::add);
+			assertEquals(0, compiler.run(null, null, null, arguments.toArray(String[]::new)));
+		}
+
+		jar(plugins.resolve("core.jar"), classes, "core", """
+				{"name": "Core", "version": "1.0.0", "entrypoint": "core.CorePlugin", "dependencies": []}""");
+		jar(plugins.resolve("app.jar"), classes, "app", """
+				{"name": "App", "version": "1.0.0", "entrypoint": "app.AppPlugin", "dependencies": ["Core"]}""");
+		return plugins;
+	}
+
+	private static String plugin(String pkg, String name, String body) {
+		return "package " + pkg + ";\n"
+				+ "public class " + name + " extends dev.mrtecno.juno.plugin.Plugin {\n"
+				+ body + "\n"
+				+ "public " + name + "(dev.mrtecno.juno.plugin.PluginManifest m) { super(m); }\n"
+				+ "public void enable() {}\n"
+				+ "public void disable() {}\n"
+				+ "}";
+	}
+
+	private static void source(Path root, String path, String content) throws IOException {
+		Path file = root.resolve(path);
+		Files.createDirectories(file.getParent());
+		Files.writeString(file, content);
+	}
+
+	private static void jar(Path jar, Path classes, String pkg, String manifest) throws IOException {
+		try(JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar));
+			var files = Files.walk(classes.resolve(pkg))) {
+			put(out, "manifest.json", manifest.getBytes());
+			for(Path file : files.filter(Files::isRegularFile).sorted().toList())
+				put(out, classes.relativize(file).toString().replace(File.separatorChar, '/'), Files.readAllBytes(file));
+		}
+	}
+
+	private static void put(JarOutputStream out, String name, byte[] content) throws IOException {
+		out.putNextEntry(new JarEntry(name));
+		out.write(content);
+		out.closeEntry();
+	}
+}
@@ -0,0 +1,53 @@
+package dev.mrtecno.juno.tests;
+
+import dev.mrtecno.juno.service.Service;
+import dev.mrtecno.juno.service.ServiceManager;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServiceTests {
+	interface Storage extends Service {}
+
+	static class MemoryStorage implements Storage {
+		public void enable() {}
+		public void disable() {}
+	}
+
+	static class DiskStorage extends MemoryStorage {}
+
+	@Test
+	public void testHierarchyLookup() {
+		ServiceManager services = new ServiceManager();
+		MemoryStorage memory = new MemoryStorage();
+		DiskStorage disk = new DiskStorage();
+
+		services.register(memory);
+		assertSame(memory, services.get(Storage.class).orElseThrow());
+		assertSame(memory, services.get(Service.class).orElseThrow());
+		assertTrue(services.get(DiskStorage.class).isEmpty());
+
+		// Cached resolutions don't survive a change
+		services.register(disk, 10);
+		assertSame(disk, services.get(Storage.class).orElseThrow());
+		assertSame(disk, services.require(MemoryStorage.class));
+		assertEquals(List.of(disk, memory), services.all(Storage.class));
+
+		// Same class and priority replaces, a lower priority only shows once the higher one is gone
+		DiskStorage backup = new DiskStorage();
+		assertEquals(Optional.empty(), services.register(DiskStorage.class, backup, -1));
+		assertSame(disk, services.register(DiskStorage.class, new DiskStorage(), 10).orElseThrow());
+		assertTrue(services.unregister(services.get(DiskStorage.class).orElseThrow()));
+		assertSame(memory, services.get(Storage.class).orElseThrow());
+		assertSame(backup, services.get(DiskStorage.class).orElseThrow());
+
+		services.unregister(MemoryStorage.class);
+		assertSame(backup, services.get(Storage.class).orElseThrow());
+		services.unregister(DiskStorage.class);
+		assertTrue(services.get(Storage.class).isEmpty());
+		assertThrows(IllegalArgumentException.class, () -> services.require(Storage.class));
+	}
+}